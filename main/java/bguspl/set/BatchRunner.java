@@ -0,0 +1,228 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs batches of seeded headless games for rule and balance experiments: many games at once on a GameHost (so the
+ * throughput grows with the number of processors - every game has its own dealer), on a virtual clock by default (so
+ * freezes and timeouts take no real time). Each game's result is written to a CSV file as soon as it ends, and
+ * aggregate statistics are reported when the batch is done.
+ *
+ * A setting may be given several values separated by '|' (e.g. ComputerSkill=0|0.5|1) - the batch then runs every
+ * combination of the values (a variant), each with the same seeds, so the variants can be compared game by game.
+ */
+public class BatchRunner {
+
+    /**
+     * The settings of batch games (they override the configuration file, and are overridden by the command line).
+     */
+    private static final String[][] DEFAULTS = {
+            {"VirtualClock", "True"}, {"LogLevel", "OFF"}, {"MetricsJmx", "False"}, {"MetricsDumpSeconds", "0"},
+            {"EndGamePauseSeconds", "0"}, {"Hints", "False"}
+    };
+
+    private static final String CSV_HEADER = "game,variant,seed,players,winners,scores,sets,claims,penalties,ruined,game_ms,real_ms,cpu_ms,failed";
+
+    /**
+     * A combination of setting values, and the statistics of its games.
+     */
+    private static class Variant {
+
+        final String label;
+        final Properties properties;
+
+        long games;
+        long failed;
+        long sets;
+        long claims;
+        long penalties;
+        long gameMillis;
+        long realMillis;
+        double[] wins;
+
+        Variant(String label, Properties properties) {
+            this.label = label;
+            this.properties = properties;
+        }
+
+        synchronized void add(GameHost.Game game, int[] scores, List<Integer> winners) {
+            games++;
+            if (game.failure() != null) failed++;
+            sets += Arrays.stream(scores).sum();
+            claims += game.env.metrics.getClaims();
+            penalties += game.env.metrics.getPenalties();
+            gameMillis += game.gameMillis();
+            realMillis += game.realMillis();
+            if (wins == null) wins = new double[scores.length];
+            for (int winner : winners)
+                wins[winner] += 1.0 / winners.size(); // a tie is shared
+        }
+
+        synchronized String report() {
+            if (games == 0) return "  " + label + ": no games";
+            String share = wins == null ? "" : Arrays.stream(wins).mapToObj(w -> String.format("%.1f%%", 100 * w / games)).collect(Collectors.joining(" "));
+            return String.format("  %s: games=%d failed=%d sets=%.2f claims=%.1f penalties=%.1f game time=%.1f s real time=%.1f ms win share by seat=[%s]",
+                    label.isEmpty() ? "(base)" : label, games, failed, (double) sets / games, (double) claims / games,
+                    (double) penalties / games, gameMillis / 1000.0 / games, (double) realMillis / games, share);
+        }
+    }
+
+    private final Logger logger;
+    private final List<Variant> variants;
+    private final long seed;
+
+    /**
+     * @param logger     - the logger to report to.
+     * @param properties - the games' configuration properties (a value may list several values, separated by '|').
+     */
+    public BatchRunner(Logger logger, Properties properties) {
+        this.logger = logger;
+        Properties base = new Properties();
+        List<String[]> swept = new ArrayList<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            if (value.contains("|")) swept.add(new String[]{key, value});
+            else base.setProperty(key, value);
+        }
+        String seedValue = base.getProperty("RandomSeed", "").trim();
+        this.seed = seedValue.isEmpty() ? System.nanoTime() : Long.parseLong(seedValue);
+
+        List<Variant> combinations = new ArrayList<>();
+        combinations.add(new Variant("", base));
+        for (String[] setting : swept) {
+            List<Variant> next = new ArrayList<>();
+            for (Variant variant : combinations)
+                for (String value : setting[1].split("\\|")) {
+                    Properties properties1 = new Properties();
+                    properties1.putAll(variant.properties);
+                    properties1.setProperty(setting[0], value.trim());
+                    next.add(new Variant((variant.label.isEmpty() ? "" : variant.label + " ") + setting[0] + "=" + value.trim(), properties1));
+                }
+            combinations = next;
+        }
+        this.variants = combinations;
+    }
+
+    /**
+     * Runs the batch.
+     *
+     * @param games       - the number of games (seeds) per variant.
+     * @param parallelism - the maximum number of games running at once.
+     * @param csv         - the file to write each game's result to.
+     * @return            - the aggregate report.
+     */
+    public String run(int games, int parallelism, PrintWriter csv) throws InterruptedException {
+        GameHost host = new GameHost(logger);
+        int total = games * variants.size();
+        AtomicInteger next = new AtomicInteger();
+        csv.println(CSV_HEADER);
+        long start = System.currentTimeMillis();
+
+        Thread[] lanes = new Thread[Math.max(1, Math.min(parallelism, total))];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Thread(() -> {
+                // each lane runs one game at a time (the games themselves run on the host's workers)
+                for (int task; (task = next.getAndIncrement()) < total; ) {
+                    try {
+                        runGame(host, task, csv);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "batch-lane-" + i);
+            lanes[i].start();
+        }
+        for (Thread lane : lanes)
+            lane.join();
+        host.shutdown(0);
+        csv.flush();
+
+        long millis = System.currentTimeMillis() - start;
+        StringBuilder report = new StringBuilder(String.format("batch: %d games (%d variants x %d seeds from %d) in %.1f s (%.1f games/s, %d at once)",
+                total, variants.size(), games, seed, millis / 1000.0, total * 1000.0 / Math.max(1, millis), lanes.length));
+        for (Variant variant : variants)
+            report.append(System.lineSeparator()).append(variant.report());
+        return report.toString();
+    }
+
+    private void runGame(GameHost host, int task, PrintWriter csv) throws InterruptedException {
+        Variant variant = variants.get(task % variants.size());
+        long gameSeed = seed + task / variants.size();
+        Properties properties = new Properties();
+        properties.putAll(variant.properties);
+        properties.setProperty("RandomSeed", Long.toString(gameSeed));
+
+        GameHost.Game game = host.addGame("batch-" + task, properties);
+        while (!game.await(60_000))
+            logger.info("batch: still waiting for " + game);
+
+        int[] scores = game.scores();
+        int max = Arrays.stream(scores).max().orElse(0);
+        List<Integer> winners = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++)
+            if (scores[i] == max) winners.add(i);
+        variant.add(game, scores, winners);
+
+        Metrics metrics = game.env.metrics;
+        String line = String.join(",", game.name, "\"" + variant.label + "\"", Long.toString(gameSeed),
+                Integer.toString(scores.length), winners.stream().map(String::valueOf).collect(Collectors.joining(" ")),
+                Arrays.stream(scores).mapToObj(String::valueOf).collect(Collectors.joining(" ")),
+                Integer.toString(Arrays.stream(scores).sum()), Long.toString(metrics.getClaims()),
+                Long.toString(metrics.getPenalties()), Long.toString(metrics.getRuinedClaims()),
+                Long.toString(game.gameMillis()), Long.toString(game.realMillis()), Long.toString(game.cpuNanos() / 1_000_000),
+                Boolean.toString(game.failure() != null));
+        synchronized (csv) {
+            csv.println(line);
+            csv.flush();
+        }
+    }
+
+    /**
+     * Runs a batch of games.
+     *
+     * @param args - games per variant (default 100), CSV file (default batch.csv), configuration file (default
+     *               config.properties), and any number of Key=Value settings overriding the file (Key=A|B|C runs a
+     *               variant per value). BatchParallelism sets the number of games at once (default: the number of
+     *               processors).
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        String output = args.length > 1 ? args[1] : "batch.csv";
+        String filename = args.length > 2 ? args[2] : "config.properties";
+
+        Logger logger = Main.initLogger();
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            logger.severe("cannot read configuration file " + filename + ", using defaults.");
+        }
+        for (String[] setting : DEFAULTS) properties.setProperty(setting[0], setting[1]);
+        for (int i = 3; i < args.length; i++) {
+            String[] setting = args[i].split("=", 2);
+            if (setting.length == 2) properties.setProperty(setting[0].trim(), setting[1].trim());
+        }
+        int parallelism = Integer.parseInt(properties.getProperty("BatchParallelism", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        properties.remove("BatchParallelism");
+
+        String report;
+        try (PrintWriter csv = new PrintWriter(Files.newBufferedWriter(Paths.get(output)))) {
+            report = new BatchRunner(logger, properties).run(games, parallelism, csv);
+        }
+        logger.severe(report);
+        System.out.println(report);
+        for (Handler h : logger.getHandlers()) h.flush();
+    }
+}
@@ -0,0 +1,90 @@
+package bguspl.set;
+
+/**
+ * The game's time source: the current time, sleeps and the waits of the game's threads (the dealer, the players and
+ * their AI) on each other.
+ *
+ * All the waits and wake-ups between the game's threads go through the clock, so a virtual clock knows when all of
+ * them are blocked, and may then skip straight to the next timeout.
+ */
+public interface Clock {
+
+    /**
+     * @return - the current time (in milliseconds).
+     */
+    long millis();
+
+    /**
+     * Sleeps for a given time.
+     *
+     * @param millis - the time to sleep (in milliseconds).
+     * @throws InterruptedException - if the thread was interrupted.
+     */
+    void sleep(long millis) throws InterruptedException;
+
+    /**
+     * Waits on a monitor (held by the caller) until signalled (see signalAll) or until a given time passes.
+     *
+     * @param monitor       - the monitor.
+     * @param timeoutMillis - the maximum time to wait (0 for no timeout).
+     * @throws InterruptedException - if the thread was interrupted.
+     */
+    void await(Object monitor, long timeoutMillis) throws InterruptedException;
+
+    /**
+     * Wakes all the threads waiting on a monitor (held by the caller).
+     *
+     * @param monitor - the monitor.
+     */
+    void signalAll(Object monitor);
+
+    /**
+     * Parks the calling thread until unparked (see LockSupport::park - may also return spuriously or on interrupt).
+     *
+     * @param blocker - the object the thread is parked on.
+     */
+    void park(Object blocker);
+
+    /**
+     * Unparks a thread (see LockSupport::unpark).
+     *
+     * @param thread - the thread (nothing is done if null).
+     */
+    void unpark(Thread thread);
+
+    /**
+     * Called before starting a game thread (before it is submitted, so the clock does not skip ahead before it runs).
+     * The thread must call unregister when it ends.
+     */
+    void register();
+
+    /**
+     * Called by a game thread when it ends (see register).
+     */
+    void unregister();
+
+    /**
+     * @param config - the game configuration.
+     * @return       - the game's clock: a virtual clock if configured, otherwise the real time.
+     */
+    static Clock of(Config config) {
+        return config.virtualClock ? new VirtualClock() : new RealClock();
+    }
+
+    /**
+     * Registers a game thread that is about to be started (see register).
+     *
+     * @param task - the task of the thread.
+     * @return     - the task, unregistering the thread when it ends.
+     */
+    default Runnable registered(Runnable task) {
+        register();
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                unregister();
+            }
+        };
+    }
+}
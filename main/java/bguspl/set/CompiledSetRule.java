@@ -0,0 +1,150 @@
+package bguspl.set;
+
+/**
+ * A set rule (see SetRule) compiled into lookup tables, so any rule is tested as fast as the original one, with no
+ * allocation or division:
+ * - every card of the deck is encoded once as a bit per feature value ("one-hot"), packed into 64 bit words
+ *   (featureSize bits per feature, as many features as fit in a word),
+ * - ORing the encodings of the cards gives, for every feature at once, the mask of the values it takes on them,
+ * - and a table of the rule's answer for every feature and value mask tells which features match.
+ */
+public class CompiledSetRule {
+
+    private final SetRule rule;
+    private final int size;
+    private final int minMatches;
+    private final int featureCount;
+    private final int valueBits;
+    private final int valueMask;
+
+    /**
+     * The number of 64 bit words encoding a card, and the word and shift of each feature in them.
+     */
+    private final int words;
+    private final int[] featureWord;
+    private final int[] featureShift;
+
+    /**
+     * The encoding of each card (words consecutive words per card).
+     */
+    private final long[] encodings;
+
+    /**
+     * Whether each feature matches, for each mask of its values (indexed by feature << featureSize | mask).
+     */
+    private final boolean[] matching;
+
+    /**
+     * Compiles a rule.
+     *
+     * @param config - the game's configuration (the deck's features).
+     * @param rule   - the rule.
+     * @throws IllegalArgumentException - if the features have too many values to compile (over 16).
+     */
+    public CompiledSetRule(Config config, SetRule rule) {
+        if (config.featureSize > 16)
+            throw new IllegalArgumentException("cannot compile a set rule for " + config.featureSize + " values per feature");
+        this.rule = rule;
+        this.size = rule.size();
+        this.minMatches = rule.minMatches();
+        this.featureCount = config.featureCount;
+        this.valueBits = config.featureSize;
+        this.valueMask = (1 << valueBits) - 1;
+
+        int perWord = 64 / valueBits;
+        words = Math.max(1, (featureCount + perWord - 1) / perWord);
+        featureWord = new int[featureCount];
+        featureShift = new int[featureCount];
+        for (int feature = 0; feature < featureCount; feature++) {
+            featureWord[feature] = feature / perWord;
+            featureShift[feature] = feature % perWord * valueBits;
+        }
+
+        encodings = new long[config.deckSize * words];
+        for (int card = 0; card < config.deckSize; card++) {
+            int rest = card;
+            for (int feature = featureCount - 1; feature >= 0; --feature) { // the same order as Util::cardToFeatures
+                encodings[card * words + featureWord[feature]] |= 1L << (featureShift[feature] + rest % valueBits);
+                rest /= valueBits;
+            }
+        }
+
+        matching = new boolean[featureCount << valueBits];
+        for (int feature = 0; feature < featureCount; feature++)
+            for (int mask = 1; mask <= valueMask; mask++)
+                matching[feature << valueBits | mask] = rule.matches(feature, mask);
+    }
+
+    /**
+     * @return - the number of cards in a set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - the number of words encoding a card (see features).
+     */
+    public int words() {
+        return words;
+    }
+
+    /**
+     * @param card - the card id.
+     * @param word - the word (between 0 and words() - 1).
+     * @return     - a word of the card's encoding (the cards' words may be ORed and tested with test(long[], int)).
+     */
+    public long features(int card, int word) {
+        return encodings[card * words + word];
+    }
+
+    /**
+     * Checks if an array of cards forms a legal set.
+     *
+     * @param cards - the array of cards.
+     * @return      - true iff the array forms a legal set.
+     */
+    public boolean test(int[] cards) {
+        if (cards.length != size) return false;
+        int matches = 0;
+        int unchecked = featureCount;
+        for (int word = 0; word < words; word++) {
+            long values = 0;
+            for (int card : cards) values |= encodings[card * words + word];
+            for (int feature = 0; feature < featureCount; feature++) {
+                if (featureWord[feature] != word) continue;
+                if (matching[feature << valueBits | (int) (values >>> featureShift[feature]) & valueMask]) {
+                    if (++matches >= minMatches) return true;
+                } else if (matches + unchecked - 1 < minMatches) {
+                    return false;
+                }
+                unchecked--;
+            }
+        }
+        return matches >= minMatches;
+    }
+
+    /**
+     * Checks if cards form a legal set, given their ORed encodings (see features).
+     *
+     * @param values - the ORed words of the encodings of size() cards.
+     * @param offset - the offset of the first word in values.
+     * @return       - true iff the cards form a legal set.
+     */
+    public boolean test(long[] values, int offset) {
+        int matches = 0;
+        for (int feature = 0; feature < featureCount; feature++) {
+            if (matching[feature << valueBits | (int) (values[offset + featureWord[feature]] >>> featureShift[feature]) & valueMask]) {
+                if (++matches >= minMatches) return true;
+            } else if (matches + featureCount - feature - 1 < minMatches) {
+                return false;
+            }
+        }
+        return matches >= minMatches;
+    }
+
+    @Override
+    public String toString() {
+        return rule.toString();
+    }
+}
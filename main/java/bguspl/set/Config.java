@@ -7,6 +7,7 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,6 +37,27 @@ public class Config {
      */
     public final int deckSize;
 
+    /**
+     * The number of cards in a set (and of tokens each player may place)
+     */
+    public final int setSize;
+
+    /**
+     * The minimal number of features that must be all same or all different in a set (0 for all the features that are
+     * not ignored)
+     */
+    public final int setMinFeatures;
+
+    /**
+     * The features (by index, from 0) that are ignored by the set rule
+     */
+    public final int[] setIgnoredFeatures;
+
+    /**
+     * The number of collections of cards (e.g. table contents) whose sets are cached (0 for no cache)
+     */
+    public final int setCacheSize;
+
     /**
      * The number of human players in the game.
      */
@@ -46,6 +68,11 @@ public class Config {
      */
     public final int computerPlayers;
 
+    /**
+     * The probability (0 to 1) that a computer player claims a set found by the solver (instead of random slots)
+     */
+    public final double computerSkill;
+
     /**
      * The total number of players (human + computer) in the game
      */
@@ -86,12 +113,89 @@ public class Config {
      */
     public final long endGamePauseMillies;
 
+    /**
+     * The number of milliseconds to wait for the game's threads to stop when the game ends
+     */
+    public final long shutdownTimeoutMillis;
+
+    /**
+     * Whether to run the game on a virtual clock, where sleeps, freezes and turn timeouts take no real time
+     */
+    public final boolean virtualClock;
+
+    /**
+     * The port to accept remote players' key presses on (0 for no network input)
+     */
+    public final int networkPort;
+
+    /**
+     * The port to accept spectators on (0 for no spectator feed)
+     */
+    public final int spectatorPort;
+
+    /**
+     * The number of milliseconds between messages of the spectator feed
+     */
+    public final long spectatorTickMillis;
+
+    /**
+     * Whether to publish the game's metrics as JMX MBeans
+     */
+    public final boolean metricsJmx;
+
+    /**
+     * The number of milliseconds between dumps of the game's metrics to the log (0 or less for no dumps)
+     */
+    public final long metricsDumpMillis;
+
+    /**
+     * Whether to profile the contention on the game's monitors (reported to the log at the end of the game)
+     */
+    public final boolean lockProfiling;
+
+    /**
+     * The seed of the dealer's random card draws (recorded in the game journal so the game can be replayed)
+     */
+    public final long randomSeed;
+
+    /**
+     * The file to record the game journal to (empty for no recording)
+     */
+    public final String journalFile;
+
+    /**
+     * The game journal file to replay instead of taking input from the players (empty for a regular game)
+     */
+    public final String replayFile;
+
+    /**
+     * Whether to replay the journal at maximum speed with no user interface and no delays (otherwise in real time)
+     */
+    public final boolean replayFastForward;
+
+    /**
+     * The file to record the timing of the human players' key presses to, for trace driven load tests (empty for no
+     * recording)
+     */
+    public final String inputTraceFile;
+
+    /**
+     * The directory of the leaderboard to record the games' results to (empty for no leaderboard)
+     */
+    public final String leaderboardDirectory;
+
     /**
      * The names of the players to display on the screen
      * Note: if there are more players than names, the remaining players will be called "Player 3", "Player 4", etc.
      */
     public final String[] playerNames;
 
+    /**
+     * Whether to draw the players' live statistics (sets per minute, mean time to find a set and penalty ratio) under
+     * their scores
+     */
+    public final boolean liveStats;
+
     /**
      * The number of rows in the grid of cards on the table (and on the screen)
      */
@@ -197,25 +301,61 @@ public class Config {
         featureSize = Integer.parseInt(properties.getProperty("FeatureSize", "3"));
         featureCount = Integer.parseInt(properties.getProperty("FeatureCount", "4"));
         deckSize = (int) Math.pow(featureSize, featureCount);
+        String size = properties.getProperty("SetSize", "").trim();
+        int parsedSetSize = size.isEmpty() ? featureSize : Integer.parseInt(size);
+        if (parsedSetSize < 2) {
+            logger.severe("invalid set size: " + parsedSetSize + " using " + featureSize + " instead.");
+            parsedSetSize = featureSize;
+        }
+        setSize = parsedSetSize;
+        setMinFeatures = Integer.parseInt(properties.getProperty("SetMinFeatures", "0"));
+        String ignoredFeatures = properties.getProperty("SetIgnoredFeatures", "").trim();
+        setIgnoredFeatures = ignoredFeatures.isEmpty() ? new int[0]
+                : Arrays.stream(ignoredFeatures.split(",")).mapToInt(feature -> Integer.parseInt(feature.trim())).toArray();
+        setCacheSize = Integer.parseInt(properties.getProperty("SetCacheSize", "0"));
+
+        // network settings
+        networkPort = Integer.parseInt(properties.getProperty("NetworkPort", "0"));
+        spectatorPort = Integer.parseInt(properties.getProperty("SpectatorPort", "0"));
+        spectatorTickMillis = (long) (Double.parseDouble(properties.getProperty("SpectatorTickSeconds", "0.05")) * 1000.0);
+
+        // metrics settings
+        metricsJmx = Boolean.parseBoolean(properties.getProperty("MetricsJmx", "True"));
+        metricsDumpMillis = (long) (Double.parseDouble(properties.getProperty("MetricsDumpSeconds", "0")) * 1000.0);
+        lockProfiling = Boolean.parseBoolean(properties.getProperty("LockProfiling", "False"));
+
+        // journal and replay settings
+        String seed = properties.getProperty("RandomSeed", "").trim();
+        randomSeed = seed.isEmpty() ? new Random().nextLong() : Long.parseLong(seed);
+        journalFile = properties.getProperty("JournalFile", "").trim();
+        replayFile = properties.getProperty("ReplayFile", "").trim();
+        replayFastForward = !replayFile.isEmpty() && Boolean.parseBoolean(properties.getProperty("ReplayFastForward", "False"));
+        inputTraceFile = properties.getProperty("InputTraceFile", "").trim();
+        leaderboardDirectory = properties.getProperty("LeaderboardDirectory", "").trim();
 
         // gameplay settings
         humanPlayers = Integer.parseInt(properties.getProperty("HumanPlayers", "2"));
         computerPlayers = Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
         players = humanPlayers + computerPlayers;
+        computerSkill = Double.parseDouble(properties.getProperty("ComputerSkill", "0"));
 
         hints = Boolean.parseBoolean(properties.getProperty("Hints", "False"));
         turnTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutSeconds", "60")) * 1000.0);
         turnTimeoutWarningMillis = (long) (Double.parseDouble(properties.getProperty("TurnTimeoutWarningSeconds", "60")) * 1000.0);
-        pointFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
-        penaltyFreezeMillis = (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
-        tableDelayMillis = (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
-        endGamePauseMillies = (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
+        pointFreezeMillis = replayFastForward ? 0 : (long) (Double.parseDouble(properties.getProperty("PointFreezeSeconds", "1")) * 1000.0);
+        penaltyFreezeMillis = replayFastForward ? 0 : (long) (Double.parseDouble(properties.getProperty("PenaltyFreezeSeconds", "3")) * 1000.0);
+        tableDelayMillis = replayFastForward ? 0 : (long) (Double.parseDouble(properties.getProperty("TableDelaySeconds", "0.1")) * 1000.0);
+        endGamePauseMillies = replayFastForward ? 0 : (long) (Double.parseDouble(properties.getProperty("EndGamePauseSeconds", "5")) * 1000.0);
+        shutdownTimeoutMillis = (long) (Double.parseDouble(properties.getProperty("ShutdownTimeoutSeconds", "1")) * 1000.0);
+        virtualClock = Boolean.parseBoolean(properties.getProperty("VirtualClock", "False"));
 
         // ui settings
         String[] names = properties.getProperty("PlayerNames", "Player 1, Player 2").split(",");
         playerNames = new String[players];
         Arrays.setAll(playerNames, i -> i < names.length ? names[i].trim() : "Player " + (i + 1));
 
+        liveStats = Boolean.parseBoolean(properties.getProperty("LiveStats", "False"));
+
         rows = Integer.parseInt(properties.getProperty("Rows", "3"));
         columns = Integer.parseInt(properties.getProperty("Columns", "4"));
         tableSize = rows * columns;
@@ -1,5 +1,7 @@
 package bguspl.set;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 public class Env {
@@ -8,11 +10,56 @@ public class Env {
     public final Config config;
     public final UserInterface ui;
     public final Util util;
+    public final Metrics metrics;
+
+    /**
+     * The live statistics of the game (sets per minute, time to find a set, penalty ratio and the time with no set).
+     */
+    public final GameStats stats;
+
+    /**
+     * The profiler of the game's monitors (a no-op unless enabled in the configuration).
+     */
+    public final LockProfiler locks;
+
+    /**
+     * The game's time source (the real time, or a virtual clock for simulations).
+     */
+    public final Clock clock;
+
+    /**
+     * The executor running the game's threads (the players and AI threads), possibly shared with other games.
+     */
+    public final ExecutorService executor;
 
     public Env(Logger logger, Config config, UserInterface ui, Util util) {
+        this(logger, config, ui, util, new Metrics(), Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, ExecutorService executor) {
+        this(logger, config, ui, util, metrics, new GameStats(config.players), executor);
+    }
+
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, GameStats stats, ExecutorService executor) {
+        this(logger, config, ui, util, metrics, stats, executor, Clock.of(config));
+    }
+
+    /**
+     * @param clock - the game's clock (shared with the user interface, which is created before the environment).
+     */
+    public Env(Logger logger, Config config, UserInterface ui, Util util, Metrics metrics, GameStats stats, ExecutorService executor, Clock clock) {
         this.logger = logger;
         this.config = config;
         this.ui = ui;
         this.util = util;
+        this.metrics = metrics;
+        this.stats = stats;
+        this.executor = executor;
+        this.locks = new LockProfiler(config.lockProfiling);
+        this.clock = clock;
     }
 }
@@ -0,0 +1,396 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class hosts many independent headless games in one JVM. All games share one pool of worker threads and one
+ * timer; each game has its own environment (logger, config, metrics) and its own dealer, table and players.
+ * A failure in one game terminates only that game. Games can be added and removed at any time, and the CPU time,
+ * allocated memory and threads used by each game are measured.
+ */
+public class GameHost {
+
+    private final Logger logger;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService timers;
+    private final Map<String, Game> games = new ConcurrentHashMap<>();
+
+    /**
+     * The set caches shared by the games with the same deck and set rule (see SetCache::key).
+     */
+    private final Map<String, SetCache> setCaches = new ConcurrentHashMap<>();
+    private final ThreadMXBean threadMx = ManagementFactory.getThreadMXBean();
+
+    /**
+     * A single game running on the host.
+     */
+    public class Game {
+
+        public final String name;
+        public final Env env;
+        private final Dealer dealer;
+        private final Player[] players;
+        private final long startTime = System.currentTimeMillis();
+        private final long clockStart;
+        private volatile long endTime;
+        private volatile long clockEnd;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        /**
+         * The threads currently running tasks of this game (and their CPU time and allocated bytes when they started).
+         */
+        private final Map<Thread, long[]> running = new ConcurrentHashMap<>();
+        private final LongAdder finishedCpuNanos = new LongAdder();
+        private final LongAdder finishedAllocatedBytes = new LongAdder();
+
+        private Game(String name, Env env, Dealer dealer, Player[] players) {
+            this.name = name;
+            this.env = env;
+            this.dealer = dealer;
+            this.players = players;
+            this.clockStart = env.clock.millis();
+        }
+
+        private void end() {
+            endTime = System.currentTimeMillis();
+            clockEnd = env.clock.millis();
+            done.countDown();
+        }
+
+        /**
+         * Runs a task of this game, measuring its resource use and isolating its failures.
+         */
+        private void run(Runnable task) {
+            Thread thread = Thread.currentThread();
+            running.put(thread, new long[]{threadCpuTime(thread), threadAllocatedBytes(thread)});
+            try {
+                task.run();
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                long[] start = running.remove(thread);
+                finishedCpuNanos.add(threadCpuTime(thread) - start[0]);
+                finishedAllocatedBytes.add(threadAllocatedBytes(thread) - start[1]);
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (failure == null) failure = t;
+            env.logger.log(Level.SEVERE, "game " + name + " failed", t);
+            dealer.terminate();
+        }
+
+        /**
+         * @return - the CPU time used by the game's threads so far (in nanoseconds).
+         */
+        public long cpuNanos() {
+            long total = finishedCpuNanos.sum();
+            for (Map.Entry<Thread, long[]> entry : running.entrySet())
+                total += Math.max(0, threadCpuTime(entry.getKey()) - entry.getValue()[0]);
+            return total;
+        }
+
+        /**
+         * @return - the memory allocated by the game's threads so far (in bytes, 0 if the JVM cannot measure it).
+         */
+        public long allocatedBytes() {
+            long total = finishedAllocatedBytes.sum();
+            for (Map.Entry<Thread, long[]> entry : running.entrySet())
+                total += Math.max(0, threadAllocatedBytes(entry.getKey()) - entry.getValue()[1]);
+            return total;
+        }
+
+        /**
+         * @return - the number of threads currently running tasks of the game.
+         */
+        public int threads() {
+            return running.size();
+        }
+
+        /**
+         * @return - the failure that terminated the game (null if none).
+         */
+        public Throwable failure() {
+            return failure;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * @return - the score of each player.
+         */
+        public int[] scores() {
+            int[] scores = new int[players.length];
+            for (int i = 0; i < players.length; i++)
+                scores[i] = players[i].score();
+            return scores;
+        }
+
+        /**
+         * @return - the real time the game took so far (in milliseconds).
+         */
+        public long realMillis() {
+            return (isDone() ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        /**
+         * @return - the time the game took so far on its own clock (the same as realMillis, unless on a virtual clock).
+         */
+        public long gameMillis() {
+            return (isDone() ? clockEnd : env.clock.millis()) - clockStart;
+        }
+
+        /**
+         * Waits for the game to end.
+         *
+         * @param timeoutMillis - the maximum time to wait.
+         * @return - true iff the game ended.
+         */
+        public boolean await(long timeoutMillis) throws InterruptedException {
+            return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s, %d ms, cpu=%.1f ms, allocated=%.1f MB, threads=%d, claims=%d",
+                    name, failure != null ? "failed" : isDone() ? "done" : "running", realMillis(),
+                    cpuNanos() / 1e6, allocatedBytes() / 1e6, threads(), env.metrics.getClaims());
+        }
+    }
+
+    /**
+     * An executor of a single game's tasks that runs them on the host's shared workers.
+     */
+    private class GameExecutor extends AbstractExecutorService {
+
+        private final Game[] game = new Game[1]; // set once the game is created
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown) throw new RejectedExecutionException("game executor is shut down");
+            workers.execute(() -> game[0].run(task));
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown && game[0].threads() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return game[0].await(unit.toMillis(timeout));
+        }
+    }
+
+    public GameHost(Logger logger) {
+        this.logger = logger;
+        this.workers = Executors.newCachedThreadPool(daemonThreads("game-worker-"));
+        this.timers = Executors.newSingleThreadScheduledExecutor(daemonThreads("game-timer-"));
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private long threadCpuTime(Thread thread) {
+        long time = threadMx.getThreadCpuTime(thread.getId());
+        return Math.max(time, 0);
+    }
+
+    private long threadAllocatedBytes(Thread thread) {
+        if (threadMx instanceof com.sun.management.ThreadMXBean)
+            return Math.max(((com.sun.management.ThreadMXBean) threadMx).getThreadAllocatedBytes(thread.getId()), 0);
+        return 0;
+    }
+
+    /**
+     * Creates and starts a new headless game. All players of a hosted game are computer players, and a journal (if
+     * configured) is recorded to a file per game.
+     *
+     * @param name       - the name of the game (must be unique on the host).
+     * @param properties - the game's configuration properties.
+     * @return - the game.
+     */
+    public Game addGame(String name, Properties properties) {
+        if (games.containsKey(name)) throw new IllegalArgumentException("game " + name + " already exists");
+
+        Properties gameProperties = new Properties();
+        gameProperties.putAll(properties);
+        int players = Integer.parseInt(properties.getProperty("HumanPlayers", "2")) + Integer.parseInt(properties.getProperty("ComputerPlayers", "0"));
+        gameProperties.setProperty("HumanPlayers", "0");
+        gameProperties.setProperty("ComputerPlayers", Integer.toString(players));
+        gameProperties.remove("ReplayFile");
+        String journal = properties.getProperty("JournalFile", "").trim();
+        if (!journal.isEmpty()) gameProperties.setProperty("JournalFile", journal + "." + name);
+
+        Logger gameLogger = Logger.getLogger(logger.getName() + "." + name);
+        Config config = new Config(gameLogger, gameProperties);
+        SetCache setCache = config.setCacheSize <= 0 ? null
+                : setCaches.computeIfAbsent(SetCache.key(config), key -> new SetCache(config.setCacheSize, config.deckSize));
+        Util util = new UtilImpl(config, SetRule.of(config), setCache);
+        UserInterface ui = new UserInterfaceDecorator(gameLogger, util, null);
+        Metrics metrics = new Metrics();
+        if (config.metricsJmx) metrics.register(name, gameLogger);
+        metrics.startDump(timers, config.metricsDumpMillis, gameLogger);
+        GameExecutor executor = new GameExecutor();
+        Env env = new Env(gameLogger, config, ui, util, metrics, executor);
+
+        Table table = new Table(env);
+        Player[] gamePlayers = new Player[config.players];
+        Dealer dealer = new Dealer(env, table, gamePlayers);
+        for (int i = 0; i < gamePlayers.length; i++)
+            gamePlayers[i] = new Player(env, dealer, table, i, false);
+
+        Game game = new Game(name, env, dealer, gamePlayers);
+        executor.game[0] = game;
+        games.put(name, game);
+        executor.execute(ThreadLogger.named(() -> {
+            try {
+                dealer.run();
+            } finally {
+                executor.shutdown();
+                metrics.close();
+                games.remove(name);
+                game.end();
+                logger.info("game " + game);
+            }
+        }, "dealer-" + name, gameLogger));
+        return game;
+    }
+
+    /**
+     * Terminates a game and waits for it to end.
+     *
+     * @param name          - the name of the game.
+     * @param timeoutMillis - the maximum time to wait for the game to end.
+     * @return - true iff the game ended (or did not exist).
+     */
+    public boolean removeGame(String name, long timeoutMillis) throws InterruptedException {
+        Game game = games.get(name);
+        if (game == null) return true;
+        game.dealer.terminate();
+        return game.await(timeoutMillis);
+    }
+
+    /**
+     * @return - the games currently running on the host.
+     */
+    public Collection<Game> games() {
+        return games.values();
+    }
+
+    /**
+     * @return - a report of the resources used by each running game.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder().append(games.size()).append(" games running");
+        for (Game game : games.values())
+            sb.append(System.lineSeparator()).append("  ").append(game);
+        return sb.toString();
+    }
+
+    /**
+     * Terminates all games and stops the shared workers and timer.
+     *
+     * @param timeoutMillis - the maximum time to wait for all the games to end.
+     */
+    public void shutdown(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Game game : games.values())
+            game.dealer.terminate();
+        for (Game game : games.values())
+            if (!game.await(Math.max(0, deadline - System.currentTimeMillis())))
+                logger.severe("game " + game.name + " did not end in time");
+        timers.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Runs a number of games on a host until they all end.
+     *
+     * @param args - the number of games (default 10) and the configuration file (default config.properties).
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String filename = args.length > 1 ? args[1] : "config.properties";
+
+        Logger logger = Main.initLogger();
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            logger.severe("cannot read configuration file " + filename + ", using defaults.");
+        }
+
+        GameHost host = new GameHost(logger);
+        long start = System.currentTimeMillis();
+        List<Game> games = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            games.add(host.addGame("game-" + i, properties));
+
+        long reportMillis = (long) (Double.parseDouble(properties.getProperty("HostReportSeconds", "10")) * 1000.0);
+        for (Game game : games)
+            while (!game.await(reportMillis))
+                logger.info(host.report());
+
+        long failed = games.stream().filter(game -> game.failure() != null).count();
+        String summary = count + " games ended in " + (System.currentTimeMillis() - start) + " ms (" + failed + " failed)";
+        logger.severe(summary);
+        System.out.println(summary);
+        host.shutdown(0);
+        for (Handler h : logger.getHandlers()) h.flush();
+    }
+}
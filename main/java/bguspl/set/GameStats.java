@@ -0,0 +1,281 @@
+package bguspl.set;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class holds the live statistics of a game, per player and for the table: sets per minute (over the whole game
+ * and over the last minute), the time to find a set since the last deal (mean and percentiles), the penalty ratio,
+ * and the time the table had no set on it.
+ *
+ * The statistics are updated incrementally in fixed memory (counters, a latency histogram per player and a ring of
+ * per-second buckets for the last minute) by the dealer thread alone, with no locks, and may be read at any time from
+ * any thread. All times are on the game's clock, passed in by the caller.
+ */
+public class GameStats {
+
+    /**
+     * The last minute window: its number of buckets, and the length of each bucket.
+     */
+    private static final int WINDOW_BUCKETS = 60;
+    private static final long BUCKET_MILLIS = 1000;
+
+    /**
+     * The number of events in each of the last WINDOW_BUCKETS buckets (written by a single thread).
+     */
+    private static class Window {
+
+        private final AtomicLongArray counts = new AtomicLongArray(WINDOW_BUCKETS);
+        private final AtomicLongArray buckets = new AtomicLongArray(WINDOW_BUCKETS);
+
+        void add(long now) {
+            long bucket = now / BUCKET_MILLIS;
+            int i = (int) (bucket % WINDOW_BUCKETS);
+            if (buckets.get(i) != bucket) {
+                counts.set(i, 0);
+                buckets.set(i, bucket);
+            }
+            counts.set(i, counts.get(i) + 1);
+        }
+
+        long count(long now) {
+            long bucket = now / BUCKET_MILLIS;
+            long count = 0;
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                long age = bucket - buckets.get(i);
+                if (age >= 0 && age < WINDOW_BUCKETS) count += counts.get(i);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The statistics of a single player (or of all the players together).
+     */
+    public static class Counts {
+
+        private volatile long points;
+        private volatile long penalties;
+        private volatile long ruined;
+        private final Window recent = new Window();
+
+        /**
+         * The time from the last deal until each point (recorded in nanoseconds, see LatencyHistogram).
+         */
+        private final LatencyHistogram timeToFind;
+
+        private Counts(String name) {
+            timeToFind = new LatencyHistogram(name);
+        }
+
+        public long points() {
+            return points;
+        }
+
+        public long penalties() {
+            return penalties;
+        }
+
+        public long ruined() {
+            return ruined;
+        }
+
+        /**
+         * @return - the penalties out of the claims given a verdict (0 to 1).
+         */
+        public double penaltyRatio() {
+            long verdicts = points + penalties;
+            return verdicts == 0 ? 0 : (double) penalties / verdicts;
+        }
+
+        /**
+         * @param percentile - the percentile (between 0 and 100).
+         * @return           - the time to find a set since the last deal at the percentile (in milliseconds).
+         */
+        public double timeToFindMillis(double percentile) {
+            return timeToFind.valueAtPercentile(percentile) / 1e6;
+        }
+
+        /**
+         * @return - the mean time to find a set since the last deal (in milliseconds).
+         */
+        public double meanTimeToFindMillis() {
+            return timeToFind.getMeanMicros() / 1000;
+        }
+    }
+
+    private final Counts[] players;
+    private final Counts table = new Counts("table");
+
+    private volatile long gameStart = -1;
+    private volatile long lastDeal;
+    private volatile long deals;
+
+    /**
+     * The time the table has had no set on it (not counting the current stretch), the longest stretch so far, and the
+     * start of the current stretch (-1 if the table has a set).
+     */
+    private volatile long noSetMillis;
+    private volatile long longestNoSetMillis;
+    private volatile long noSetSince = -1;
+
+    /**
+     * @param players - the number of players.
+     */
+    public GameStats(int players) {
+        this.players = new Counts[players];
+        for (int i = 0; i < players; i++)
+            this.players[i] = new Counts("player" + i);
+    }
+
+    /**
+     * Called by the dealer when it places new cards on the table.
+     *
+     * @param now - the current time.
+     */
+    public void dealt(long now) {
+        if (gameStart < 0) gameStart = now;
+        lastDeal = now;
+        deals++;
+    }
+
+    /**
+     * Called by the dealer when the cards on the table changed.
+     *
+     * @param now    - the current time.
+     * @param hasSet - true iff there is a set on the table.
+     */
+    public void tableChanged(long now, boolean hasSet) {
+        long since = noSetSince;
+        if (hasSet && since >= 0) {
+            long stretch = now - since;
+            noSetMillis += stretch;
+            if (stretch > longestNoSetMillis) longestNoSetMillis = stretch;
+            noSetSince = -1;
+        } else if (!hasSet && since < 0) {
+            noSetSince = now;
+        }
+    }
+
+    /**
+     * Called by the dealer when it gives a point.
+     *
+     * @param player - the player.
+     * @param now    - the current time.
+     */
+    public void point(int player, long now) {
+        long nanos = Math.max(0, now - lastDeal) * 1_000_000;
+        point(players[player], now, nanos);
+        point(table, now, nanos);
+    }
+
+    private static void point(Counts counts, long now, long timeToFindNanos) {
+        counts.points++;
+        counts.recent.add(now);
+        counts.timeToFind.record(timeToFindNanos);
+    }
+
+    /**
+     * Called by the dealer when it gives a penalty.
+     */
+    public void penalty(int player) {
+        players[player].penalties++;
+        table.penalties++;
+    }
+
+    /**
+     * Called by the dealer when a claim is ruined (its cards were taken by an earlier claim).
+     */
+    public void ruined(int player) {
+        players[player].ruined++;
+        table.ruined++;
+    }
+
+    /**
+     * @param player - the player.
+     * @return       - the player's statistics.
+     */
+    public Counts player(int player) {
+        return players[player];
+    }
+
+    /**
+     * @return - the statistics of all the players together.
+     */
+    public Counts table() {
+        return table;
+    }
+
+    public long deals() {
+        return deals;
+    }
+
+    /**
+     * @param counts - a player's statistics (or the table's).
+     * @param now    - the current time.
+     * @return       - the sets per minute over the whole game.
+     */
+    public double setsPerMinute(Counts counts, long now) {
+        long start = gameStart;
+        return start < 0 || now <= start ? 0 : counts.points * 60_000.0 / (now - start);
+    }
+
+    /**
+     * @param counts - a player's statistics (or the table's).
+     * @param now    - the current time.
+     * @return       - the sets per minute over the last minute (or since the game started, if it is shorter).
+     */
+    public double recentSetsPerMinute(Counts counts, long now) {
+        long start = gameStart;
+        if (start < 0 || now <= start) return 0;
+        long window = Math.min(WINDOW_BUCKETS * BUCKET_MILLIS, now - start);
+        return counts.recent.count(now) * 60_000.0 / window;
+    }
+
+    /**
+     * @param now - the current time.
+     * @return    - the total time the table had no set on it (in milliseconds).
+     */
+    public long noSetMillis(long now) {
+        long since = noSetSince;
+        return noSetMillis + (since >= 0 ? Math.max(0, now - since) : 0);
+    }
+
+    /**
+     * @param now - the current time.
+     * @return    - the longest stretch of time the table had no set on it (in milliseconds).
+     */
+    public long longestNoSetMillis(long now) {
+        long since = noSetSince;
+        return Math.max(longestNoSetMillis, since >= 0 ? now - since : 0);
+    }
+
+    /**
+     * @param player - the player.
+     * @param now    - the current time.
+     * @return       - a short summary of the player's statistics (to display under the player's score).
+     */
+    public String summary(int player, long now) {
+        Counts counts = players[player];
+        return String.format("%.1f/min %.1fs %d%%", recentSetsPerMinute(counts, now), counts.meanTimeToFindMillis() / 1000,
+                Math.round(100 * counts.penaltyRatio()));
+    }
+
+    /**
+     * @param now - the current time.
+     * @return    - the statistics of the table and of each player.
+     */
+    public String report(long now) {
+        StringBuilder report = new StringBuilder(String.format("stats: table: deals=%d no set for %d ms (longest %d ms) %s",
+                deals, noSetMillis(now), longestNoSetMillis(now), format(table, now)));
+        for (int i = 0; i < players.length; i++)
+            report.append(System.lineSeparator()).append(String.format("  player %d: %s", i, format(players[i], now)));
+        return report.toString();
+    }
+
+    private String format(Counts counts, long now) {
+        return String.format("sets=%d (%.2f/min, last minute %.2f/min) penalties=%d (%.0f%%) ruined=%d time to find: mean=%.0f ms p50=%.0f ms p90=%.0f ms",
+                counts.points, setsPerMinute(counts, now), recentSetsPerMinute(counts, now), counts.penalties,
+                100 * counts.penaltyRatio(), counts.ruined, counts.meanTimeToFindMillis(), counts.timeToFindMillis(50),
+                counts.timeToFindMillis(90));
+    }
+}
@@ -4,11 +4,15 @@ import bguspl.set.ex.Player;
 
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class handles the input from the keyboard, translates it to table grid slots and dispatches accordingly.
+ * It runs on the swing event thread, so it only queues each press for its player (see Player::keyPressed) and never
+ * waits for the table.
  */
 class InputManager extends KeyAdapter {
 
@@ -18,9 +22,15 @@ class InputManager extends KeyAdapter {
     int[] keyToSlot = new int[MAX_KEY_CODE + 1];
     private final Logger logger;
 
+    /**
+     * The trace the key presses are recorded to (null if they are not recorded).
+     */
+    private final InputTrace trace;
+
     public InputManager(Logger logger, Config config, Player[] players) {
         this.players = players;
         this.logger = logger;
+        this.trace = createTrace(logger, config);
 
         // initialize the keys
         for (int player = 0; player < config.players; ++player)
@@ -32,6 +42,16 @@ class InputManager extends KeyAdapter {
             }
     }
 
+    private static InputTrace createTrace(Logger logger, Config config) {
+        if (config.inputTraceFile.isEmpty()) return null;
+        try {
+            return new InputTrace(config.inputTraceFile);
+        } catch (IOException e) {
+            logger.severe("cannot create input trace " + config.inputTraceFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
     private void reallocArrays(int keyCode) {
         keyMap = Arrays.copyOf(keyMap, keyCode + 1);
         keyToSlot = Arrays.copyOf(keyToSlot, keyCode + 1);
@@ -43,8 +63,21 @@ class InputManager extends KeyAdapter {
         int keyCode = e.getKeyCode();
         int player = keyMap[keyCode] - 1;
         if (player >= 0){
-            logger.severe("key " + keyCode + " was pressed by player " + (player + 1));
+            logger.log(Level.FINE, () -> "key " + keyCode + " was pressed by player " + (player + 1));
+            if (trace != null) trace.keyPressed(e.getWhen(), player, keyToSlot[keyCode]);
             players[player].keyPressed(keyToSlot[keyCode]);
         }
     }
+
+    /**
+     * Closes the input trace (if the key presses are recorded).
+     */
+    public void close() {
+        if (trace == null) return;
+        try {
+            trace.close();
+        } catch (IOException e) {
+            logger.severe("cannot close input trace: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,236 @@
+package bguspl.set;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records the timing of the key presses of human players (as they come from the keyboard, see
+ * InputManager) to a compact trace file, so real input - bursts of presses, think pauses, tokens placed and removed
+ * again - can later drive synthetic players (see TraceLoadTest).
+ *
+ * The presses are handed to a writer thread through a queue, so recording one never holds up the keyboard's event
+ * thread on the file.
+ *
+ * File format: magic (int), followed by entries of: milliseconds since the previous entry (unsigned varint, 7 bits
+ * per byte, mostly a single byte during a burst), player (byte), slot (byte).
+ */
+public class InputTrace implements Closeable {
+
+    /**
+     * The trace file magic number ("SETT").
+     */
+    private static final int MAGIC = 0x53455454;
+
+    /**
+     * The maximum number of milliseconds recorded entries may stay buffered (so a crashed game loses little).
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+
+    /**
+     * The key presses of a single recorded player.
+     */
+    public static class Track {
+
+        /**
+         * The recorded player.
+         */
+        public final int player;
+
+        /**
+         * The time of each press (milliseconds since the trace started) and the slot pressed.
+         */
+        public final long[] times;
+        public final int[] slots;
+
+        private Track(int player, long[] times, int[] slots) {
+            this.player = player;
+            this.times = times;
+            this.slots = slots;
+        }
+
+        /**
+         * @return - the time of the last press (milliseconds since the trace started).
+         */
+        public long duration() {
+            return times.length == 0 ? 0 : times[times.length - 1];
+        }
+    }
+
+    /**
+     * The entry that tells the writer to close the file.
+     */
+    private static final long CLOSE = -1;
+
+    private final DataOutputStream out;
+
+    /**
+     * The presses not written yet, each packed as time (milliseconds since the epoch) << 16 | player << 8 | slot.
+     */
+    private final LinkedBlockingQueue<Long> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * The time of the last recorded press (the times are recorded relative to it). Used by the writer only.
+     */
+    private long lastTime = -1;
+
+    /**
+     * Creates a trace file, writes its header and starts its writer thread.
+     *
+     * @param filename - the trace file name.
+     * @throws IOException - if the file cannot be created.
+     */
+    public InputTrace(String filename) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(filename))));
+        out.writeInt(MAGIC);
+        writer = new Thread(this::write, "input-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a key press. Never blocks.
+     *
+     * @param time   - the time the key was pressed (milliseconds since the epoch).
+     * @param player - the player that pressed the key.
+     * @param slot   - the slot the key stands for.
+     */
+    public void keyPressed(long time, int player, int slot) {
+        if (closed || failure != null) return; // the trace must never break the game
+        pending.offer(time << 16 | (player & 0xFF) << 8 | (slot & 0xFF));
+    }
+
+    /**
+     * The main loop of the writer thread: writes the pending presses, and flushes them FLUSH_INTERVAL_MILLIS after the
+     * first one written since the last flush - so a press is buffered for FLUSH_INTERVAL_MILLIS at most (and a crashed
+     * game loses little), and a burst of presses is flushed at once.
+     */
+    private void write() {
+        boolean unflushed = false;
+        long flushTime = 0;
+        try {
+            while (true) {
+                Long entry = unflushed ? pending.poll(Math.max(0, flushTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                        : pending.take();
+                if (entry != null && entry == CLOSE) break;
+                if (entry != null) {
+                    append(entry);
+                    if (!unflushed) flushTime = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                    unflushed = true;
+                }
+                if (unflushed && System.currentTimeMillis() >= flushTime) {
+                    out.flush();
+                    unflushed = false;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException ignored) {
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    private void append(long entry) throws IOException {
+        long time = entry >>> 16;
+        long delta = lastTime < 0 ? 0 : Math.max(0, time - lastTime);
+        lastTime = Math.max(lastTime, time);
+        while (delta >= 0x80) {
+            out.writeByte((int) (delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        out.writeByte((int) delta);
+        out.writeByte((int) (entry >>> 8) & 0xFF);
+        out.writeByte((int) entry & 0xFF);
+    }
+
+    /**
+     * Writes the pending presses and closes the file (the presses recorded later are ignored).
+     *
+     * @throws IOException - if the trace could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pending.offer(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Loads a trace file.
+     *
+     * @param filename - the trace file name.
+     * @return - the tracks of the players recorded in the file (ordered by player, only players that pressed keys).
+     * @throws IOException - if the file cannot be read or is not a trace file.
+     */
+    public static List<Track> load(String filename) throws IOException {
+        long[][] times = new long[256][];
+        int[][] slots = new int[256][];
+        int[] counts = new int[256];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filename))))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(filename + " is not an input trace");
+            long time = 0;
+            while (true) {
+                int b;
+                try {
+                    b = in.readUnsignedByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    long delta = b & 0x7F;
+                    for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                        b = in.readUnsignedByte();
+                        delta |= (long) (b & 0x7F) << shift;
+                    }
+                    time += delta;
+                    int player = in.readUnsignedByte();
+                    int slot = in.readUnsignedByte();
+                    if (times[player] == null) {
+                        times[player] = new long[64];
+                        slots[player] = new int[64];
+                    } else if (counts[player] == times[player].length) {
+                        times[player] = Arrays.copyOf(times[player], 2 * counts[player]);
+                        slots[player] = Arrays.copyOf(slots[player], 2 * counts[player]);
+                    }
+                    times[player][counts[player]] = time;
+                    slots[player][counts[player]++] = slot;
+                } catch (EOFException e) {
+                    break; // a truncated last entry (e.g. the game crashed while writing it)
+                }
+            }
+        }
+        List<Track> tracks = new ArrayList<>();
+        for (int player = 0; player < counts.length; player++)
+            if (counts[player] > 0)
+                tracks.add(new Track(player, Arrays.copyOf(times[player], counts[player]), Arrays.copyOf(slots[player], counts[player])));
+        return Collections.unmodifiableList(tracks);
+    }
+}
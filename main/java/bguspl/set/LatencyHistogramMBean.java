@@ -0,0 +1,19 @@
+package bguspl.set;
+
+/**
+ * The JMX management interface of a latency histogram (all values in microseconds).
+ */
+public interface LatencyHistogramMBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,141 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An opt-in profiler of the game's monitors: records, per named lock and per thread role (dealer, player-i,
+ * computer-i, EDT, ...), how often the lock was taken, how long threads waited to enter it and how long they held it.
+ *
+ * Usage around a synchronized block (when disabled, every call returns at once without reading the clock):
+ * <pre>
+ *     long waitStart = locks.enter();
+ *     synchronized (lock) {
+ *         long holdStart = locks.entered("name", waitStart);
+ *         try { ... } finally { locks.exit("name", holdStart); }
+ *     }
+ * </pre>
+ * A block that waits on the monitor calls exit before the wait, so the time it waits is not counted as held (and, if
+ * it keeps holding the monitor after the wait, takes a new hold start from enter and calls exit again).
+ */
+public class LockProfiler {
+
+    /**
+     * A wait shorter than this is not counted as contended (it is the cost of an uncontended enter and the clock).
+     */
+    private static final long CONTENDED_NANOS = 1_000;
+
+    private final boolean enabled;
+
+    /**
+     * The statistics of a lock in a single thread role.
+     */
+    private static class Stats {
+
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contended = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+        final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder holdNanos = new LongAdder();
+        final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Lock name -> thread role -> statistics.
+     */
+    private final Map<String, Map<String, Stats>> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled - true iff the locks should be profiled.
+     */
+    public LockProfiler(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called right before entering a monitor.
+     *
+     * @return - the time the thread started waiting for the monitor.
+     */
+    public long enter() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Called right after entering a monitor.
+     *
+     * @param lock      - the name of the lock.
+     * @param waitStart - the value returned by enter.
+     * @return          - the time the thread started holding the monitor.
+     */
+    public long entered(String lock, long waitStart) {
+        if (!enabled) return 0;
+        long now = System.nanoTime();
+        long waited = now - waitStart;
+        Stats stats = stats(lock);
+        stats.acquisitions.increment();
+        stats.waitNanos.add(waited);
+        stats.maxWaitNanos.accumulate(waited);
+        if (waited >= CONTENDED_NANOS) stats.contended.increment();
+        return now;
+    }
+
+    /**
+     * Called right before leaving a monitor (or waiting on it).
+     *
+     * @param lock      - the name of the lock.
+     * @param holdStart - the value returned by entered.
+     */
+    public void exit(String lock, long holdStart) {
+        if (!enabled) return;
+        long held = System.nanoTime() - holdStart;
+        Stats stats = stats(lock);
+        stats.holdNanos.add(held);
+        stats.maxHoldNanos.accumulate(held);
+    }
+
+    private Stats stats(String lock) {
+        return locks.computeIfAbsent(lock, name -> new ConcurrentHashMap<>()).computeIfAbsent(role(Thread.currentThread()), role -> new Stats());
+    }
+
+    /**
+     * @return - the role of a thread (its name, except for the swing event thread).
+     */
+    static String role(Thread thread) {
+        String name = thread.getName();
+        return name.startsWith("AWT-EventQueue") ? "EDT" : name;
+    }
+
+    /**
+     * @return - the contention report: a line per lock and thread role, ranked by the total time spent waiting.
+     */
+    public String report() {
+        if (!enabled) return "lock profiling is disabled";
+        List<String[]> rows = new ArrayList<>();
+        List<Long> waits = new ArrayList<>();
+        locks.forEach((lock, roles) -> roles.forEach((role, stats) -> {
+            waits.add(stats.waitNanos.sum());
+            rows.add(new String[]{lock, role, String.format("acquisitions=%d contended=%d wait=%.3f ms (max %.1f us) hold=%.3f ms (max %.1f us)",
+                    stats.acquisitions.sum(), stats.contended.sum(), stats.waitNanos.sum() / 1e6, stats.maxWaitNanos.get() / 1e3,
+                    stats.holdNanos.sum() / 1e6, stats.maxHoldNanos.get() / 1e3)});
+        }));
+
+        Integer[] order = new Integer[rows.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(waits.get(b), waits.get(a)));
+
+        StringBuilder sb = new StringBuilder("lock contention (by total wait):");
+        for (int i : order)
+            sb.append(System.lineSeparator()).append(String.format("  %-14s %-14s %s", rows.get(i)[0], rows.get(i)[1], rows.get(i)[2]));
+        return sb.toString();
+    }
+}
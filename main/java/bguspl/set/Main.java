@@ -1,7 +1,9 @@
 package bguspl.set;
 
 import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Journal;
 import bguspl.set.ex.Player;
+import bguspl.set.ex.Replay;
 import bguspl.set.ex.Table;
 
 import java.io.File;
@@ -10,6 +12,8 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.*;
 
 /**
@@ -22,12 +26,15 @@ public class Main {
 
     private static boolean xButtonPressed = false;
     private static Logger logger;
+    private static long shutdownTimeoutMillis;
 
     public static void xButtonPressed() throws InterruptedException {
         if (logger != null) logger.severe("exit button pressed");
         xButtonPressed = true;
         if (dealer != null) dealer.terminate();
-        mainThread.join();
+        // the dealer stops the players and the main thread stops the other threads, each within the shutdown timeout
+        mainThread.join(2 * shutdownTimeoutMillis + 1);
+        if (mainThread.isAlive() && logger != null) logger.severe("main thread did not finish the shutdown in time");
     }
 
     /**
@@ -43,38 +50,99 @@ public class Main {
         logger = initLogger();
         ThreadLogger.logStart(logger, Thread.currentThread().getName());
         Config config = new Config(logger, "config.properties");
+        shutdownTimeoutMillis = config.shutdownTimeoutMillis;
         Util util = new UtilImpl(config);
 
+        // load the recorded game to replay (if any)
+        Journal.Recording recording = null;
+        if (!config.replayFile.isEmpty()) try {
+            recording = Journal.load(config.replayFile);
+        } catch (IOException e) {
+            logger.severe("cannot load game journal " + config.replayFile + ": " + e.getMessage());
+            return;
+        }
+
         Player[] players = new Player[config.players];
+        GameStats stats = new GameStats(config.players);
+        Clock clock = Clock.of(config);
         UserInterface ui = null;
-        try {
-            ui = new UserInterfaceSwing(logger, config, players);
+        if (!config.replayFastForward) try {
+            ui = new UserInterfaceSwing(logger, config, players, config.liveStats ? stats : null, clock);
         } catch (UnsupportedOperationException | IllegalArgumentException e) {
             logger.severe("error creating swing user interface: " + e.getMessage());
             logger.severe("will try to run without user interface");
             if (config.humanPlayers > 0)
                 logger.severe("warning: running with human players with no user interface");
         }
+        SpectatorFeed spectators = null;
+        if (config.spectatorPort > 0) try {
+            spectators = new SpectatorFeed(logger, config, ui, config.spectatorPort);
+            ui = spectators;
+        } catch (IOException e) {
+            logger.severe("cannot accept spectators on port " + config.spectatorPort + ": " + e.getMessage());
+        }
         ui = new UserInterfaceDecorator(logger, util, ui);
 
-        Env env = new Env(logger, config, ui, util);
+        Metrics metrics = new Metrics();
+        if (config.metricsJmx) metrics.register("main", logger);
+        metrics.startDump(config.metricsDumpMillis, logger);
 
-        // create the game entities
-        Table table = new Table(env);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Env env = new Env(logger, config, ui, util, metrics, stats, executor, clock);
+
+        // create the game entities (when replaying, all players are fed by the replay and not by the keyboard or AI)
+        Table table = recording == null ? new Table(env) : new Table(env, recording.seed);
         dealer = new Dealer(env, table, players);
         for (int i = 0; i < players.length; i++)
-            players[i] = new Player(env, dealer, table, i, i < env.config.humanPlayers);
+            players[i] = new Player(env, dealer, table, i, recording != null || i < env.config.humanPlayers);
 
         // start the dealer thread
         ThreadLogger dealerThread = new ThreadLogger(dealer, "dealer", logger);
         dealerThread.startWithLog();
 
+        // the threads below are stopped together at the end of the game
+        ShutdownCoordinator shutdown = new ShutdownCoordinator(logger, config.shutdownTimeoutMillis);
+
+        // start the spectator feed thread
+        if (spectators != null) {
+            ThreadLogger spectatorThread = new ThreadLogger(spectators, "spectators", logger);
+            spectatorThread.setDaemon(true);
+            spectatorThread.startWithLog();
+            shutdown.register(spectatorThread, spectators::close);
+        }
+
+        // start the network input thread
+        NetworkInputManager network = null;
+        if (config.networkPort > 0) try {
+            network = new NetworkInputManager(logger, config, players, config.networkPort);
+            ThreadLogger networkThread = new ThreadLogger(network, "network", logger);
+            networkThread.startWithLog();
+            shutdown.register(networkThread, network::close);
+        } catch (IOException e) {
+            logger.severe("cannot accept remote players on port " + config.networkPort + ": " + e.getMessage());
+        }
+
+        // start the replay thread
+        if (recording != null) {
+            Runnable replay = new Replay(env, dealer, players, recording, config.replayFastForward);
+            // a real time replay sleeps on the game clock until the next event, so a virtual clock may skip to it
+            if (!config.replayFastForward) replay = env.clock.registered(replay);
+            ThreadLogger replayThread = new ThreadLogger(replay, "replay", logger);
+            replayThread.setDaemon(true);
+            replayThread.startWithLog();
+            shutdown.register(replayThread, () -> {}); // interrupted out of its sleep
+        }
+
         try {
             // shutdown stuff
             dealerThread.joinWithLog();
             if (!xButtonPressed && config.endGamePauseMillies > 0) Thread.sleep(config.endGamePauseMillies);
         } catch (InterruptedException ignored) {
         } finally {
+            shutdown.shutdown();
+            logger.log(Level.INFO, metrics.dump());
+            metrics.close();
+            executor.shutdown();
             logger.severe("thanks for playing... it was fun!");
             System.out.println("Thanks for playing... it was fun!");
             ThreadLogger.logStop(logger, Thread.currentThread().getName());
@@ -83,7 +151,7 @@ public class Main {
         }
     }
 
-    private static Logger initLogger() {
+    static Logger initLogger() {
 
         //just to make our log file nicer :)
         SimpleDateFormat format = new SimpleDateFormat("M-d_HH-mm-ss");
@@ -0,0 +1,228 @@
+package bguspl.set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class holds the game's hot path metrics: lock-free counters and latency histograms that are cheap enough to
+ * be always on. They can be published as JMX MBeans and periodically dumped to the log as text.
+ */
+public class Metrics implements MetricsMBean {
+
+    /**
+     * Claim counters (by verdict).
+     */
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder points = new LongAdder();
+    private final LongAdder penalties = new LongAdder();
+    private final LongAdder ruinedClaims = new LongAdder();
+
+    /**
+     * The key presses dropped because the player already had setSize presses waiting.
+     */
+    private final LongAdder droppedKeyPresses = new LongAdder();
+
+    /**
+     * The number of claims waiting for the dealer (and the highest number seen).
+     */
+    private final AtomicInteger claimQueueDepth = new AtomicInteger();
+    private final AtomicInteger maxClaimQueueDepth = new AtomicInteger();
+
+    /**
+     * The time from a player's third token until the dealer's verdict.
+     */
+    public final LatencyHistogram claimLatency = new LatencyHistogram("claimLatency");
+
+    /**
+     * The time the dealer spends on each iteration of its loop (excluding the time it sleeps).
+     */
+    public final LatencyHistogram dealerIteration = new LatencyHistogram("dealerIteration");
+
+    /**
+     * The time spent finding sets: in Util::findSets by the dealer, and by SetSolver::find for the players (including
+     * mapping the cards of the sets to their slots).
+     */
+    public final LatencyHistogram findSets = new LatencyHistogram("findSets");
+
+    private final List<ObjectName> registered = new ArrayList<>();
+    private ScheduledFuture<?> dumpTask;
+    private ScheduledExecutorService ownTimer;
+
+    /**
+     * Called when a claim (a player's third token) is queued for the dealer.
+     */
+    public void claimQueued() {
+        claims.increment();
+        int depth = claimQueueDepth.incrementAndGet();
+        int current;
+        while (depth > (current = maxClaimQueueDepth.get()) && !maxClaimQueueDepth.compareAndSet(current, depth))
+            Thread.onSpinWait();
+    }
+
+    /**
+     * Called when the dealer takes a claim out of the queue.
+     */
+    public void claimDequeued() {
+        claimQueueDepth.decrementAndGet();
+    }
+
+    /**
+     * Called when the dealer gives a verdict on a claim.
+     *
+     * @param claimNanos - the time the claim was made (as returned by System.nanoTime()).
+     * @param point      - true iff the claim was a legal set.
+     */
+    public void verdict(long claimNanos, boolean point) {
+        claimLatency.recordSince(claimNanos);
+        if (point) points.increment();
+        else penalties.increment();
+    }
+
+    /**
+     * Called when a claim is dropped because its cards were removed from the table before it was checked.
+     */
+    public void claimRuined(long claimNanos) {
+        claimLatency.recordSince(claimNanos);
+        ruinedClaims.increment();
+    }
+
+    /**
+     * Called when a key press is dropped because the player's key press queue is full.
+     */
+    public void keyPressDropped() {
+        droppedKeyPresses.increment();
+    }
+
+    @Override
+    public long getClaims() {
+        return claims.sum();
+    }
+
+    @Override
+    public long getPoints() {
+        return points.sum();
+    }
+
+    @Override
+    public long getPenalties() {
+        return penalties.sum();
+    }
+
+    @Override
+    public long getRuinedClaims() {
+        return ruinedClaims.sum();
+    }
+
+    @Override
+    public long getDroppedKeyPresses() {
+        return droppedKeyPresses.sum();
+    }
+
+    @Override
+    public int getClaimQueueDepth() {
+        return claimQueueDepth.get();
+    }
+
+    @Override
+    public int getMaxClaimQueueDepth() {
+        return maxClaimQueueDepth.get();
+    }
+
+    @Override
+    public long getDealerIterations() {
+        return dealerIteration.getCount();
+    }
+
+    @Override
+    public long getFindSetsCalls() {
+        return findSets.getCount();
+    }
+
+    @Override
+    public String dump() {
+        return "metrics: claims=" + getClaims() + " points=" + getPoints() + " penalties=" + getPenalties()
+                + " ruined=" + getRuinedClaims() + " droppedPresses=" + getDroppedKeyPresses() + " queue=" + getClaimQueueDepth() + " maxQueue=" + getMaxClaimQueueDepth()
+                + System.lineSeparator() + "  " + claimLatency
+                + System.lineSeparator() + "  " + dealerIteration
+                + System.lineSeparator() + "  " + findSets;
+    }
+
+    /**
+     * Publishes the metrics as JMX MBeans.
+     *
+     * @param game   - the name of the game (distinguishes the MBeans of games running in the same JVM).
+     * @param logger - the logger to report failures to.
+     */
+    public synchronized void register(String game, Logger logger) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName("bguspl.set:type=Metrics,game=" + ObjectName.quote(game)), this);
+            for (LatencyHistogram histogram : new LatencyHistogram[]{claimLatency, dealerIteration, findSets})
+                register(server, new ObjectName("bguspl.set:type=Latency,game=" + ObjectName.quote(game) + ",name=" + histogram.getName()), histogram);
+        } catch (JMException e) {
+            logger.severe("cannot register metrics MBeans: " + e.getMessage());
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        if (server.isRegistered(name)) server.unregisterMBean(name);
+        server.registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    /**
+     * Starts a daemon thread that periodically writes the metrics to the log.
+     *
+     * @param periodMillis - the time between dumps (nothing is started if not positive).
+     * @param logger       - the logger to write to.
+     */
+    public synchronized void startDump(long periodMillis, Logger logger) {
+        if (periodMillis <= 0 || dumpTask != null) return;
+        ownTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startDump(ownTimer, periodMillis, logger);
+    }
+
+    /**
+     * Periodically writes the metrics to the log using a (possibly shared) timer.
+     *
+     * @param timers       - the timer to schedule the dumps on.
+     * @param periodMillis - the time between dumps (nothing is scheduled if not positive).
+     * @param logger       - the logger to write to.
+     */
+    public synchronized void startDump(ScheduledExecutorService timers, long periodMillis, Logger logger) {
+        if (periodMillis <= 0 || dumpTask != null) return;
+        dumpTask = timers.scheduleAtFixedRate(() -> logger.log(Level.INFO, dump()), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic dump and removes the JMX MBeans.
+     */
+    public synchronized void close() {
+        if (dumpTask != null) dumpTask.cancel(false);
+        if (ownTimer != null) ownTimer.shutdownNow();
+        dumpTask = null;
+        ownTimer = null;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered)
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException ignored) {}
+        registered.clear();
+    }
+}
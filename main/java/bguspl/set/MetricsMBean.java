@@ -0,0 +1,27 @@
+package bguspl.set;
+
+/**
+ * The JMX management interface of the game's hot path counters.
+ */
+public interface MetricsMBean {
+
+    long getClaims();
+
+    long getPoints();
+
+    long getPenalties();
+
+    long getRuinedClaims();
+
+    long getDroppedKeyPresses();
+
+    int getClaimQueueDepth();
+
+    int getMaxClaimQueueDepth();
+
+    long getDealerIterations();
+
+    long getFindSetsCalls();
+
+    String dump();
+}
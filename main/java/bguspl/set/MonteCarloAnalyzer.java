@@ -0,0 +1,290 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * A Monte Carlo analyzer of the table and deck configuration (Rows, Columns, FeatureCount and FeatureSize): simulates
+ * many random deals and whole games on all the processors (with parallel streams), using the game's own set logic
+ * (Util::findSets), and estimates:
+ * - the probability that a random deal of a full table has no set,
+ * - the number of forced redraws the dealer makes (see Dealer::placeCardsOnTable - when there is no turn timeout, the
+ *   dealer redraws the cards it placed until the table has a set) or, with a turn timeout, the number of turns that
+ *   time out on a table with no set,
+ * - the distribution of the game length (the number of sets taken until the cards left have no set).
+ *
+ * A simulated game takes a random set off the table whenever there is one (no players, claims or timing) - so it
+ * measures the deck and the dealer, not the players. Each deal and game has its own random seed (derived from the
+ * base seed), so the results are reproducible whatever the number of processors.
+ */
+public class MonteCarloAnalyzer {
+
+    /**
+     * A deal that needs more redraws than this is counted as stuck (the dealer would keep redrawing forever).
+     */
+    private static final int MAX_REDRAWS = 10_000;
+
+    private final Config config;
+    private final Util util;
+    private final long seed;
+
+    /**
+     * A distribution of non-negative integer values: a histogram, with the count, mean and extremes.
+     */
+    static class Distribution {
+
+        private long[] counts = new long[16];
+        private long count;
+        private long sum;
+        private int min = Integer.MAX_VALUE;
+        private int max;
+
+        void add(int value) {
+            if (value >= counts.length) counts = Arrays.copyOf(counts, Math.max(value + 1, counts.length * 2));
+            counts[value]++;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        void merge(Distribution other) {
+            if (other.counts.length > counts.length) counts = Arrays.copyOf(counts, other.counts.length);
+            for (int value = 0; value < other.counts.length; value++)
+                counts[value] += other.counts[value];
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param fraction - the fraction of the values (0 to 1).
+         * @return         - the lowest value that is at least the given fraction of the values.
+         */
+        int percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int value = 0; value < counts.length; value++)
+                if ((seen += counts[value]) >= rank && seen > 0)
+                    return value;
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            if (count == 0) return "none";
+            return String.format("mean=%.2f min=%d p10=%d p50=%d p90=%d p99=%d max=%d", mean(), min, percentile(0.1),
+                    percentile(0.5), percentile(0.9), percentile(0.99), max);
+        }
+    }
+
+    /**
+     * The statistics of a number of simulated games.
+     */
+    static class Games {
+
+        long games;
+        long stuck;
+        final Distribution sets = new Distribution();
+        final Distribution redraws = new Distribution();
+        final Distribution emptyTurns = new Distribution();
+        final Distribution cardsLeft = new Distribution();
+
+        void merge(Games other) {
+            games += other.games;
+            stuck += other.stuck;
+            sets.merge(other.sets);
+            redraws.merge(other.redraws);
+            emptyTurns.merge(other.emptyTurns);
+            cardsLeft.merge(other.cardsLeft);
+        }
+    }
+
+    /**
+     * @param config - the configuration to analyze.
+     * @param seed   - the base random seed.
+     */
+    public MonteCarloAnalyzer(Config config, long seed) {
+        this.config = config;
+        this.util = new UtilImpl(config);
+        this.seed = seed;
+    }
+
+    /**
+     * Simulates random deals of a full table.
+     *
+     * @param deals - the number of deals.
+     * @return      - the number of deals with no set on the table.
+     */
+    public long dealsWithoutSet(long deals) {
+        int tableSize = Math.min(config.tableSize, config.deckSize);
+        return LongStream.range(0, deals).parallel().filter(deal -> {
+            SplittableRandom random = new SplittableRandom(seed + deal);
+            int[] cards = IntStream.range(0, config.deckSize).toArray();
+            List<Integer> table = new ArrayList<>(tableSize);
+            for (int i = 0; i < tableSize; i++) {
+                int j = i + random.nextInt(cards.length - i); // a partial Fisher-Yates shuffle
+                int card = cards[j];
+                cards[j] = cards[i];
+                cards[i] = card;
+                table.add(card);
+            }
+            return util.findSets(table, 1).isEmpty();
+        }).count();
+    }
+
+    /**
+     * Simulates whole games.
+     *
+     * @param games - the number of games.
+     * @return      - the statistics of the games.
+     */
+    public Games games(int games) {
+        return IntStream.range(0, games).parallel().collect(Games::new, this::simulate, Games::merge);
+    }
+
+    /**
+     * Simulates a game the way the dealer plays it: fills the empty slots from the deck (redrawing the placed cards
+     * until the table has a set when there is no turn timeout), takes a set off the table, and ends when the cards
+     * left (on the table and in the deck) have no set.
+     */
+    private void simulate(Games stats, int game) {
+        SplittableRandom random = new SplittableRandom(~seed + game);
+        boolean forcedRedraws = config.turnTimeoutMillis <= 0;
+        List<Integer> deck = new ArrayList<>(config.deckSize);
+        for (int card = 0; card < config.deckSize; card++) deck.add(card);
+        List<Integer> table = new ArrayList<>(config.tableSize);
+        int sets = 0, redraws = 0, emptyTurns = 0;
+        boolean stuck = false;
+
+        while (!stuck) {
+            // fill the empty slots
+            List<Integer> placed = draw(deck, config.tableSize - table.size(), random);
+            table.addAll(placed);
+            while (forcedRedraws && !placed.isEmpty() && util.findSets(table, 1).isEmpty()) {
+                if (redraws++ >= MAX_REDRAWS) {
+                    stuck = true;
+                    break;
+                }
+                table.subList(table.size() - placed.size(), table.size()).clear();
+                deck.addAll(placed);
+                placed = draw(deck, placed.size(), random);
+                table.addAll(placed);
+            }
+
+            List<int[]> onTable = util.findSets(table, Integer.MAX_VALUE);
+            if (onTable.isEmpty()) {
+                // the turn times out (or, with no cards left to redraw, the game is over)
+                List<Integer> left = new ArrayList<>(table);
+                left.addAll(deck);
+                if (util.findSets(left, 1).isEmpty()) break;
+                emptyTurns++;
+                deck.addAll(table);
+                table.clear();
+                continue;
+            }
+
+            for (int card : onTable.get(random.nextInt(onTable.size())))
+                table.remove(Integer.valueOf(card));
+            sets++;
+
+            List<Integer> left = new ArrayList<>(table);
+            left.addAll(deck);
+            if (util.findSets(left, 1).isEmpty()) break;
+        }
+
+        stats.games++;
+        if (stuck) stats.stuck++;
+        stats.sets.add(sets);
+        stats.redraws.add(redraws);
+        stats.emptyTurns.add(emptyTurns);
+        stats.cardsLeft.add(table.size() + deck.size());
+    }
+
+    private static List<Integer> draw(List<Integer> deck, int count, SplittableRandom random) {
+        List<Integer> drawn = new ArrayList<>(count);
+        for (int i = 0; i < count && !deck.isEmpty(); i++) {
+            int index = random.nextInt(deck.size());
+            drawn.add(deck.get(index));
+            deck.set(index, deck.get(deck.size() - 1));
+            deck.remove(deck.size() - 1);
+        }
+        return drawn;
+    }
+
+    /**
+     * Runs the analysis.
+     *
+     * @param deals - the number of random deals.
+     * @param games - the number of games.
+     * @return      - the report.
+     */
+    public String run(long deals, int games) {
+        long start = System.nanoTime();
+        long noSet = dealsWithoutSet(deals);
+        double dealSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        Games stats = games(games);
+        double gameSeconds = (System.nanoTime() - start) / 1e9;
+
+        double p = deals == 0 ? 0 : (double) noSet / deals;
+        String nl = System.lineSeparator();
+        return String.format("monte carlo: %d x %d table, %d features of %d values (%d cards), %s, %d processors",
+                config.rows, config.columns, config.featureCount, config.featureSize, config.deckSize,
+                config.turnTimeoutMillis <= 0 ? "forced redraws (no turn timeout)" : "turn timeout", Runtime.getRuntime().availableProcessors())
+                + nl + String.format("  deals: %d in %.1f s, no set in %d: P(no set)=%.5f (+-%.5f), expected redraws per full deal=%.4f",
+                deals, dealSeconds, noSet, p, 1.96 * Math.sqrt(p * (1 - p) / Math.max(1, deals)), p < 1 ? p / (1 - p) : Double.POSITIVE_INFINITY)
+                + nl + String.format("  games: %d in %.1f s, stuck (over %d redraws)=%d", stats.games, gameSeconds, MAX_REDRAWS, stats.stuck)
+                + nl + "    sets taken per game: " + stats.sets
+                + nl + "    forced redraws per game: " + stats.redraws
+                + nl + "    turns with no set on the table per game: " + stats.emptyTurns
+                + nl + "    cards left at the end: " + stats.cardsLeft
+                + nl + "  " + util;
+    }
+
+    /**
+     * Runs the analysis.
+     *
+     * @param args - random deals (default 1000000), games (default 10000), configuration file (default
+     *               config.properties), and any number of Key=Value settings overriding the file (e.g. Rows=4).
+     */
+    public static void main(String[] args) {
+        long deals = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        String filename = args.length > 2 ? args[2] : "config.properties";
+
+        Logger logger = Main.initLogger();
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            logger.severe("cannot read configuration file " + filename + ", using defaults.");
+        }
+        for (int i = 3; i < args.length; i++) {
+            String[] setting = args[i].split("=", 2);
+            if (setting.length == 2) properties.setProperty(setting[0].trim(), setting[1].trim());
+        }
+        Config config = new Config(logger, properties);
+
+        String report = new MonteCarloAnalyzer(config, config.randomSeed).run(deals, games);
+        logger.severe(report);
+        System.out.println(report);
+        for (Handler h : logger.getHandlers()) h.flush();
+    }
+}
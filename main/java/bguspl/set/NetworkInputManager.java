@@ -0,0 +1,190 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class handles input from remote players over the network and dispatches it to the players, like InputManager
+ * does for the keyboard. All connections are served by a single thread using a non-blocking selector; the key presses
+ * read in each selector tick are applied to the players as one batch.
+ *
+ * Protocol: a stream of 2 byte frames, each one a key press: player id (unsigned byte), slot (unsigned byte).
+ */
+public class NetworkInputManager implements Runnable, Closeable {
+
+    /**
+     * The size of a single key press frame.
+     */
+    public static final int FRAME_SIZE = 2;
+
+    /**
+     * The size of each connection's read buffer.
+     */
+    private static final int BUFFER_SIZE = 512;
+
+    private final Logger logger;
+    private final Config config;
+    private final Player[] players;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private volatile boolean closed;
+
+    /**
+     * The key presses read in the current tick (player and slot of each press).
+     */
+    private int[] batchPlayers = new int[BUFFER_SIZE];
+    private int[] batchSlots = new int[BUFFER_SIZE];
+    private int batchSize;
+
+    /**
+     * Statistics.
+     */
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder presses = new LongAdder();
+    private final LongAdder invalidPresses = new LongAdder();
+    private final LongAdder ticks = new LongAdder();
+
+    /**
+     * Opens the server socket.
+     *
+     * @param logger  - the logger.
+     * @param config  - the game configuration.
+     * @param players - the players to dispatch the key presses to.
+     * @param port    - the port to listen on (0 for any free port).
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public NetworkInputManager(Logger logger, Config config, Player[] players, int port) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.players = players;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the port the server listens on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * The network input thread starts here (the selector loop).
+     */
+    @Override
+    public void run() {
+        logger.log(Level.INFO, "accepting remote players on port " + port());
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else if (key.isReadable()) read(key);
+                }
+                dispatchBatch();
+                ticks.increment();
+            }
+        } catch (IOException e) {
+            logger.severe("network input failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys())
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {}
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+        logger.log(Level.INFO, "network input stopped: " + this);
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(BUFFER_SIZE));
+            connections.increment();
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        ByteBuffer buffer = (ByteBuffer) key.attachment();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+
+        buffer.flip();
+        while (buffer.remaining() >= FRAME_SIZE)
+            addToBatch(buffer.get() & 0xFF, buffer.get() & 0xFF);
+        buffer.compact();
+
+        if (read < 0) {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void addToBatch(int player, int slot) {
+        if (player >= players.length || slot >= config.tableSize || players[player] == null) {
+            invalidPresses.increment();
+            return;
+        }
+        if (batchSize == batchPlayers.length) {
+            batchPlayers = Arrays.copyOf(batchPlayers, batchSize * 2);
+            batchSlots = Arrays.copyOf(batchSlots, batchSize * 2);
+        }
+        batchPlayers[batchSize] = player;
+        batchSlots[batchSize] = slot;
+        batchSize++;
+    }
+
+    private void dispatchBatch() {
+        for (int i = 0; i < batchSize; i++)
+            players[batchPlayers[i]].keyPressed(batchSlots[i]);
+        presses.add(batchSize);
+        batchSize = 0;
+    }
+
+    /**
+     * Stops the selector loop (which then closes all the connections).
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public String toString() {
+        return "connections=" + connections.sum() + " presses=" + presses.sum() + " invalid=" + invalidPresses.sum()
+                + " ticks=" + ticks.sum();
+    }
+}
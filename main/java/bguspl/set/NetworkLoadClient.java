@@ -0,0 +1,126 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A load generator for NetworkInputManager: opens many connections from a single thread and sends random key presses
+ * over them (round robin) at a given aggregate rate.
+ */
+public class NetworkLoadClient {
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int players;
+    private final int tableSize;
+    private final List<SocketChannel> channels = new ArrayList<>();
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(NetworkInputManager.FRAME_SIZE);
+
+    private long sent;
+    private long dropped;
+
+    /**
+     * @param address     - the address of the game's network input.
+     * @param connections - the number of connections to open.
+     * @param players     - the number of players to press keys for (player ids are 0 to players - 1).
+     * @param tableSize   - the number of slots to press (slots are 0 to tableSize - 1).
+     */
+    public NetworkLoadClient(InetSocketAddress address, int connections, int players, int tableSize) {
+        this.address = address;
+        this.connections = connections;
+        this.players = players;
+        this.tableSize = tableSize;
+    }
+
+    /**
+     * Opens all the connections (without a thread per connection) and waits until they are established.
+     */
+    public void connect() throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < connections; i++) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (!channel.connect(address))
+                    channel.register(selector, SelectionKey.OP_CONNECT);
+                channels.add(channel);
+            }
+            while (!selector.keys().isEmpty()) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    ((SocketChannel) key.channel()).finishConnect();
+                    key.cancel();
+                }
+                selector.selectedKeys().clear();
+                selector.selectNow(); // flush the cancelled keys
+            }
+        }
+    }
+
+    /**
+     * Sends random key presses at the given rate.
+     *
+     * @param pressesPerSecond - the aggregate rate of key presses over all the connections.
+     * @param durationMillis   - the time to send for.
+     */
+    public void send(long pressesPerSecond, long durationMillis) throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000L;
+        int next = 0;
+        for (long now = start; now < end; now = System.nanoTime()) {
+            long due = (now - start) * pressesPerSecond / 1_000_000_000L;
+            for (; sent + dropped < due; next = (next + 1) % channels.size()) {
+                frame.clear();
+                frame.put((byte) random.nextInt(players)).put((byte) random.nextInt(tableSize)).flip();
+                // a full socket buffer means the server is behind - drop the press rather than block
+                SocketChannel channel = channels.get(next);
+                if (channel.write(frame) == 0) {
+                    dropped++;
+                    continue;
+                }
+                while (frame.hasRemaining()) channel.write(frame); // never leave half a frame in the stream
+                sent++;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    public void close() {
+        for (SocketChannel channel : channels)
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args - host, port, connections, presses per second, seconds, players, table size.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7777;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long rate = args.length > 3 ? Long.parseLong(args[3]) : 10000;
+        double seconds = args.length > 4 ? Double.parseDouble(args[4]) : 10;
+        int players = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+        int tableSize = args.length > 6 ? Integer.parseInt(args[6]) : 12;
+
+        NetworkLoadClient client = new NetworkLoadClient(new InetSocketAddress(host, port), connections, players, tableSize);
+        long start = System.currentTimeMillis();
+        client.connect();
+        System.out.println(connections + " connections established in " + (System.currentTimeMillis() - start) + " ms");
+        client.send(rate, (long) (seconds * 1000));
+        System.out.println("sent " + client.sent + " key presses (" + client.dropped + " dropped)");
+        client.close();
+    }
+}
@@ -0,0 +1,178 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of the sets found in collections of cards (e.g. the contents of the table), keyed by the bitmask
+ * of the cards - so the same cards in any order (or in any slots) hit the same entry.
+ *
+ * The cache is split into segments, each an LRU map of its own (guarded by its own monitor), so it is safe for
+ * concurrent use and threads looking up different cards rarely contend; the least recently used entry of a full
+ * segment is evicted. The capacity is divided between the segments (fewer of them for a small capacity, so each holds
+ * at least one entry), so the cache never holds more than its capacity. A miss is solved outside the segment's monitor.
+ *
+ * The sets are kept and returned in a canonical order (the order Util::findSets finds them in the cards sorted by
+ * id), so the result does not depend on whether it was cached.
+ */
+public class SetCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The bitmask of a collection of cards.
+     */
+    private static final class Key {
+
+        final long[] bits;
+        final int hash;
+
+        Key(long[] bits) {
+            this.bits = bits;
+            int h = Arrays.hashCode(bits);
+            this.hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(bits, ((Key) other).bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int capacity;
+    private final int words;
+    private final List<Map<Key, List<int[]>>> segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder lookupMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity - the maximum number of cached card collections.
+     * @param deckSize - the number of cards in the deck.
+     */
+    public SetCache(int capacity, int deckSize) {
+        this.capacity = capacity;
+        this.words = (deckSize + 63) / 64;
+        int count = Math.min(MAX_SEGMENTS, Integer.highestOneBit(Math.max(1, capacity)));
+        segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int segmentCapacity = capacity / count + (i < capacity % count ? 1 : 0);
+            segments.add(new LinkedHashMap<Key, List<int[]>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, List<int[]>> eldest) {
+                    if (size() <= segmentCapacity) return false;
+                    evictions.increment();
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns all the sets in a collection of cards, from the cache or (on a miss) from a solver.
+     *
+     * @param cards  - the cards (distinct card ids).
+     * @param solver - finds all the sets in the given cards (called with the cards sorted by id on a miss), or null to
+     *                 only look the cards up (e.g. when only some of the sets are needed, finding them is cheaper).
+     * @return       - an unmodifiable list of the sets (their arrays must not be modified), or null on a miss with no
+     *                 solver, or if the cards are not distinct.
+     */
+    public List<int[]> sets(List<Integer> cards, Function<List<Integer>, List<int[]>> solver) {
+        long[] bits = new long[words];
+        for (int card : cards)
+            bits[card >>> 6] |= 1L << card;
+        int count = 0;
+        for (long word : bits) count += Long.bitCount(word);
+        if (count != cards.size()) return null;
+
+        Key key = new Key(bits);
+        Map<Key, List<int[]>> segment = segments.get(key.hash & (segments.size() - 1));
+        List<int[]> sets;
+        synchronized (segment) {
+            sets = segment.get(key);
+        }
+        if (sets != null) {
+            hits.increment();
+            return sets;
+        }
+
+        if (solver == null) {
+            lookupMisses.increment();
+            return null;
+        }
+        misses.increment();
+        Integer[] sorted = new Integer[count];
+        int i = 0;
+        for (int word = 0; word < words; word++)
+            for (long rest = bits[word]; rest != 0; rest &= rest - 1)
+                sorted[i++] = word * 64 + Long.numberOfTrailingZeros(rest);
+        sets = Collections.unmodifiableList(solver.apply(Arrays.asList(sorted)));
+        synchronized (segment) {
+            segment.put(key, sets);
+        }
+        return sets;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return - the number of misses solved (and cached).
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return - the number of misses of lookups with no solver (not cached).
+     */
+    public long lookupMisses() {
+        return lookupMisses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return - the number of cached card collections.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Key, List<int[]>> segment : segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * @param config - a game's configuration.
+     * @return       - a key of the configurations whose games may share a cache (the same deck and set rule settings).
+     */
+    public static String key(Config config) {
+        return config.featureCount + "x" + config.featureSize + " set=" + config.setSize + " min=" + config.setMinFeatures
+                + " ignored=" + Arrays.toString(config.setIgnoredFeatures);
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits(), misses = misses(), lookupMisses = lookupMisses(), all = hits + misses + lookupMisses;
+        return String.format("set cache: size=%d/%d hits=%d misses=%d lookup misses=%d (%.1f%% hits) evictions=%d", size(),
+                capacity, hits, misses, lookupMisses, all == 0 ? 0 : 100.0 * hits / all, evictions());
+    }
+}
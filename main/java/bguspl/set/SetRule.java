@@ -0,0 +1,73 @@
+package bguspl.set;
+
+/**
+ * A rule for what is a legal set, in terms of the cards' features: a set has size() cards, each feature of the cards
+ * either matches or not (judged by the values the feature takes on the cards), and the cards form a set iff at least
+ * minMatches() features match.
+ *
+ * A rule is declarative - it is asked about every feature and value combination once, when it is compiled (see
+ * CompiledSetRule), and sets are then tested with the compiled lookup tables only.
+ */
+public interface SetRule {
+
+    /**
+     * @return - the number of cards in a set.
+     */
+    int size();
+
+    /**
+     * @param feature - the feature (between 0 and config.featureCount - 1).
+     * @param values  - a bitmask of the values the feature takes on the cards of a would-be set (bit v is set iff
+     *                  some card has value v).
+     * @return        - true iff the feature matches.
+     */
+    boolean matches(int feature, int values);
+
+    /**
+     * @return - the minimal number of matching features in a set.
+     */
+    int minMatches();
+
+    /**
+     * The configured rule (see the SetSize, SetMinFeatures and SetIgnoredFeatures settings): a feature matches if it
+     * is the same on all the cards or different on all of them, and is never counted if it is ignored. With the
+     * default settings, this is the rule of the original game.
+     *
+     * @param config - the game's configuration.
+     * @return       - the rule.
+     */
+    static SetRule of(Config config) {
+        boolean[] ignored = new boolean[config.featureCount];
+        for (int feature : config.setIgnoredFeatures)
+            if (feature >= 0 && feature < ignored.length) ignored[feature] = true;
+        int ignoredCount = 0;
+        for (boolean ignore : ignored)
+            if (ignore) ignoredCount++;
+        int counted = config.featureCount - ignoredCount;
+        int minMatches = config.setMinFeatures > 0 ? Math.min(config.setMinFeatures, counted) : counted;
+
+        return new SetRule() {
+            @Override
+            public int size() {
+                return config.setSize;
+            }
+
+            @Override
+            public boolean matches(int feature, int values) {
+                int distinct = Integer.bitCount(values);
+                return !ignored[feature] && (distinct == 1 || distinct == config.setSize);
+            }
+
+            @Override
+            public int minMatches() {
+                return minMatches;
+            }
+
+            @Override
+            public String toString() {
+                return config.setSize + " cards, " + minMatches + " of " + config.featureCount + " features all same or all different"
+                        + (counted < config.featureCount ? " (" + (config.featureCount - counted) + " ignored)" : "");
+            }
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stops a group of threads (dedicated threads and tasks running on an executor) together, within a deadline.
+ *
+ * On shutdown, every registered thread is first asked to stop (its stop action - e.g. setting a terminate flag and
+ * notifying the monitor it waits on - is run), then interrupted (so it does not finish a sleep or a blocking wait
+ * first), and only then are all of them waited for, against a single deadline - so the shutdown takes as long as the
+ * slowest thread to stop (bounded by the deadline), and not the sum of them all. Threads that did not stop by the
+ * deadline are reported (with where they are stuck) and left behind.
+ */
+public class ShutdownCoordinator {
+
+    /**
+     * A registered thread.
+     */
+    private static class Task {
+
+        final String name;
+        final Runnable stop;
+
+        /**
+         * The thread running the task (null if the task is not running).
+         */
+        Thread thread;
+
+        /**
+         * Counted down when the task is done (null for a dedicated thread, which is joined instead).
+         */
+        final CountDownLatch done;
+
+        Task(String name, Runnable stop, Thread thread, CountDownLatch done) {
+            this.name = name;
+            this.stop = stop;
+            this.thread = thread;
+            this.done = done;
+        }
+
+        synchronized void interrupt() {
+            if (thread != null && thread != Thread.currentThread()) thread.interrupt();
+        }
+
+        synchronized Thread thread() {
+            return thread;
+        }
+
+        /**
+         * @param timeoutNanos - the maximum time to wait.
+         * @return             - true iff the task stopped in time.
+         */
+        boolean await(long timeoutNanos) throws InterruptedException {
+            if (done != null) return done.await(Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+            if (thread == Thread.currentThread()) return true;
+            if (timeoutNanos > 0) TimeUnit.NANOSECONDS.timedJoin(thread, timeoutNanos);
+            return !thread.isAlive();
+        }
+    }
+
+    private final Logger logger;
+    private final long timeoutMillis;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param logger        - the logger to report to.
+     * @param timeoutMillis - the maximum time to wait for the threads to stop.
+     */
+    public ShutdownCoordinator(Logger logger, long timeoutMillis) {
+        this.logger = logger;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Submits a task to an executor, to be stopped on shutdown. The task runs under the given thread name (see
+     * ThreadLogger::named).
+     *
+     * @param executor - the executor to run the task on.
+     * @param target   - the task.
+     * @param name     - the thread name to run the task under.
+     * @param stop     - asks the task to stop (must not block).
+     * @return         - the future of the task.
+     */
+    public Future<?> submit(ExecutorService executor, Runnable target, String name, Runnable stop) {
+        Task task = new Task(name, stop, null, new CountDownLatch(1));
+        Runnable named = ThreadLogger.named(target, name, logger);
+        tasks.add(task);
+        try {
+            return executor.submit(() -> {
+                synchronized (task) {
+                    task.thread = Thread.currentThread();
+                }
+                try {
+                    named.run();
+                } finally {
+                    synchronized (task) {
+                        task.thread = null;
+                        Thread.interrupted(); // do not leak a late interrupt to the next task of the pooled thread
+                    }
+                    task.done.countDown();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.done.countDown();
+            throw e;
+        }
+    }
+
+    /**
+     * Registers a started dedicated thread, to be stopped on shutdown.
+     *
+     * @param thread - the thread.
+     * @param stop   - asks the thread to stop (must not block).
+     */
+    public void register(Thread thread, Runnable stop) {
+        tasks.add(new Task(thread.getName(), stop, thread, null));
+    }
+
+    /**
+     * Stops all the registered threads and waits for them until the deadline.
+     *
+     * @return - the names of the threads that did not stop by the deadline.
+     */
+    public List<String> shutdown() {
+        long start = System.nanoTime();
+        long deadline = start + timeoutMillis * 1_000_000L;
+        List<Task> stopping = new ArrayList<>();
+        for (Task task; (task = tasks.poll()) != null; ) stopping.add(task);
+
+        for (Task task : stopping) {
+            try {
+                task.stop.run();
+            } catch (RuntimeException e) {
+                logger.severe("shutdown: cannot stop " + task.name + ": " + e);
+            }
+        }
+        for (Task task : stopping)
+            task.interrupt();
+
+        List<String> stuck = new ArrayList<>();
+        boolean interrupted = false;
+        for (Task task : stopping) {
+            boolean stopped = false;
+            try {
+                stopped = task.await(deadline - System.nanoTime());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                deadline = System.nanoTime(); // stop waiting, but still report
+            }
+            if (stopped) continue;
+
+            stuck.add(task.name);
+            Thread thread = task.thread();
+            StackTraceElement[] stack = thread == null ? new StackTraceElement[0] : thread.getStackTrace();
+            logger.severe("shutdown: " + task.name + " did not stop within " + timeoutMillis + " ms"
+                    + (thread == null ? "" : " (" + thread.getState() + (stack.length > 0 ? " at " + stack[0] : "") + ")"));
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        logger.info("shutdown: " + (stopping.size() - stuck.size()) + " of " + stopping.size() + " threads stopped in "
+                + (System.nanoTime() - start) / 1000 + " us");
+        return stuck;
+    }
+}
@@ -0,0 +1,143 @@
+package bguspl.set;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * A load client for SpectatorFeed: connects many spectators from a single thread, reads their messages and keeps the
+ * table (cards per slot) of each one up to date.
+ */
+public class SpectatorClient {
+
+    /**
+     * The state of a single spectator.
+     */
+    private static class Spectator {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        final int[] slotToCard;
+        long deltas;
+        long snapshots;
+        long lastSequence = -1;
+
+        Spectator(int tableSize) {
+            slotToCard = new int[tableSize];
+            Arrays.fill(slotToCard, -1);
+        }
+
+        /**
+         * Applies all the complete messages in the buffer.
+         */
+        void consume() {
+            buffer.flip();
+            while (buffer.remaining() >= 4 && buffer.remaining() >= 4 + buffer.getInt(buffer.position())) {
+                int end = buffer.position() + 4 + buffer.getInt();
+                lastSequence = buffer.getLong();
+                byte type = buffer.get();
+                if (type == SpectatorFeed.SNAPSHOT) {
+                    snapshots++;
+                    Arrays.fill(slotToCard, -1);
+                } else deltas++;
+                while (buffer.position() < end) apply(buffer);
+            }
+            buffer.compact();
+        }
+
+        private void apply(ByteBuffer records) {
+            byte opcode = records.get();
+            switch (opcode) {
+                case SpectatorFeed.PLACE_CARD:
+                    int slot = records.getShort();
+                    slotToCard[slot] = records.getShort();
+                    break;
+                case SpectatorFeed.REMOVE_CARD:
+                    slotToCard[records.getShort()] = -1;
+                    break;
+                case SpectatorFeed.PLACE_TOKEN:
+                case SpectatorFeed.REMOVE_TOKEN:
+                    records.getInt();
+                    break;
+                case SpectatorFeed.REMOVE_TOKENS:
+                    records.getShort();
+                    break;
+                case SpectatorFeed.COUNTDOWN:
+                    records.getLong();
+                    records.get();
+                    break;
+                case SpectatorFeed.ELAPSED:
+                case SpectatorFeed.ELAPSED_SINCE:
+                    records.getLong();
+                    break;
+                case SpectatorFeed.DEADLINE:
+                    records.getLong();
+                    records.getLong();
+                    break;
+                case SpectatorFeed.FREEZE:
+                    records.getShort();
+                    records.getLong();
+                    break;
+                case SpectatorFeed.SCORE:
+                    records.getShort();
+                    records.getInt();
+                    break;
+                case SpectatorFeed.WINNERS:
+                    int count = records.getShort();
+                    for (int i = 0; i < count; i++) records.getShort();
+                    break;
+                default:
+                    throw new IllegalStateException("unknown spectator feed opcode " + opcode);
+            }
+        }
+    }
+
+    /**
+     * Connects spectators and reads from them.
+     *
+     * @param args - host, port, spectators, seconds, table size.
+     */
+    public static void main(String[] args) throws IOException {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7778;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+        int tableSize = args.length > 4 ? Integer.parseInt(args[4]) : 12;
+
+        Spectator[] spectators = new Spectator[count];
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < count; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+                channel.configureBlocking(false);
+                spectators[i] = new Spectator(tableSize);
+                channel.register(selector, SelectionKey.OP_READ, spectators[i]);
+            }
+
+            long end = System.currentTimeMillis() + (long) (seconds * 1000);
+            long bytes = 0;
+            while (System.currentTimeMillis() < end && !selector.keys().isEmpty()) {
+                selector.select(Math.max(1, end - System.currentTimeMillis()));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Spectator spectator = (Spectator) key.attachment();
+                    int read = ((SocketChannel) key.channel()).read(spectator.buffer);
+                    if (read < 0) {
+                        key.cancel();
+                        continue;
+                    }
+                    bytes += read;
+                    spectator.consume();
+                }
+                selector.selectedKeys().clear();
+            }
+            for (SelectionKey key : selector.keys()) key.channel().close();
+
+            long deltas = Arrays.stream(spectators).mapToLong(s -> s.deltas).sum();
+            long snapshots = Arrays.stream(spectators).mapToLong(s -> s.snapshots).sum();
+            System.out.println(count + " spectators read " + bytes + " bytes: " + deltas + " delta and " + snapshots + " snapshot messages");
+            System.out.println("spectator 0 at tick " + spectators[0].lastSequence + ": " + Arrays.toString(spectators[0].slotToCard));
+        }
+    }
+}
@@ -0,0 +1,509 @@
+package bguspl.set;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class feeds the table state to spectators over the network. It wraps the game's user interface: every call is
+ * passed on to the wrapped interface and also encoded as a compact delta record. Once per tick the deltas are copied
+ * into a single shared direct buffer, which is written to every subscriber through its own view of the buffer (so
+ * the cost of a spectator is about one socket write per tick).
+ *
+ * A subscriber that cannot take a whole tick keeps at most the one message it is in the middle of; the ticks it
+ * misses meanwhile are replaced by a full snapshot of the table state once it catches up.
+ *
+ * Wire format: a stream of messages, each one: length of the rest of the message (int), tick sequence number (long),
+ * type (byte: 'D' for deltas, 'S' for a snapshot), followed by the records. A snapshot's records rebuild the whole
+ * state from an empty table. Records: an opcode byte followed by its arguments (see the opcode constants).
+ */
+public class SpectatorFeed implements UserInterface, Runnable, Closeable {
+
+    /**
+     * Message types.
+     */
+    public static final byte DELTAS = 'D';
+    public static final byte SNAPSHOT = 'S';
+
+    /**
+     * Record opcodes (and their arguments).
+     */
+    public static final byte PLACE_CARD = 'C';      // slot (short), card (short)
+    public static final byte REMOVE_CARD = 'c';     // slot (short)
+    public static final byte PLACE_TOKEN = 'T';     // player (short), slot (short)
+    public static final byte REMOVE_TOKEN = 't';    // player (short), slot (short)
+    public static final byte REMOVE_TOKENS = 'X';   // slot (short), or -1 for all slots
+    public static final byte COUNTDOWN = 'N';       // milliseconds (long), warning (byte)
+    public static final byte ELAPSED = 'L';         // milliseconds (long)
+    public static final byte DEADLINE = 'd';        // deadline (long), warning milliseconds (long)
+    public static final byte ELAPSED_SINCE = 'l';   // start time (long)
+    public static final byte FREEZE = 'F';          // player (short), milliseconds (long)
+    public static final byte SCORE = 'P';           // player (short), score (int)
+    public static final byte WINNERS = 'W';         // count (short), players (short each)
+
+    private static final int HEADER_SIZE = 4 + 8 + 1;
+
+    /**
+     * The maximal number of idle message buffers kept for reuse, and the minimal capacity of a message buffer.
+     */
+    private static final int POOLED_MESSAGES = 4;
+    private static final int MIN_MESSAGE_CAPACITY = 4096;
+
+    private final Logger logger;
+    private final Config config;
+    private final UserInterface ui;
+    private final long tickMillis;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private volatile boolean closed;
+
+    /**
+     * The table state (for snapshots) and the deltas of the current tick, guarded by this.
+     */
+    private final int[] slotToCard;
+    private final boolean[][] tokens;
+    private final long[] freeze;
+    private final int[] scores;
+    private byte timer = COUNTDOWN;
+    private long timerValue;
+    private long timerArgument;
+    private boolean timerChanged;
+    private int[] winners;
+    private ByteBuffer deltas = ByteBuffer.allocate(1024);
+
+    /**
+     * The number of ticks sent so far.
+     */
+    private long sequence;
+
+    /**
+     * A message (in a pooled direct buffer) and the number of subscribers in the middle of writing it. Used by the
+     * feed thread only.
+     */
+    private static class Message {
+
+        final ByteBuffer buffer;
+        int writers;
+
+        /**
+         * True iff the tick the message was built for is over (so no more subscribers start writing it).
+         */
+        boolean sent;
+
+        Message(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The idle message buffers (used by the feed thread only).
+     */
+    private final ArrayDeque<Message> pool = new ArrayDeque<>();
+
+    /**
+     * The state of a single subscriber.
+     */
+    private static class Subscriber {
+
+        /**
+         * The message currently being written (a view of a shared buffer), or null.
+         */
+        ByteBuffer pending;
+
+        /**
+         * The message the pending view is of.
+         */
+        Message source;
+
+        /**
+         * True iff the subscriber missed ticks (or just joined) and needs a snapshot.
+         */
+        boolean resync = true;
+    }
+
+    /**
+     * @param logger - the logger.
+     * @param config - the game configuration.
+     * @param ui     - the user interface to pass the calls on to (may be null).
+     * @param port   - the port to accept spectators on (0 for any free port).
+     * @throws IOException - if the server socket cannot be opened.
+     */
+    public SpectatorFeed(Logger logger, Config config, UserInterface ui, int port) throws IOException {
+        this.logger = logger;
+        this.config = config;
+        this.ui = ui;
+        this.tickMillis = Math.max(1, config.spectatorTickMillis);
+        this.slotToCard = new int[config.tableSize];
+        Arrays.fill(slotToCard, -1);
+        this.tokens = new boolean[config.players][config.tableSize];
+        this.freeze = new long[config.players];
+        this.scores = new int[config.players];
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return - the port the feed accepts spectators on.
+     */
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    private ByteBuffer record(int size) {
+        if (deltas.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(deltas.capacity() * 2, deltas.position() + size));
+            deltas.flip();
+            deltas = larger.put(deltas);
+        }
+        return deltas;
+    }
+
+    @Override
+    public void placeCard(int card, int slot) {
+        synchronized (this) {
+            slotToCard[slot] = card;
+            record(5).put(PLACE_CARD).putShort((short) slot).putShort((short) card);
+        }
+        if (ui != null) ui.placeCard(card, slot);
+    }
+
+    @Override
+    public void removeCard(int slot) {
+        synchronized (this) {
+            slotToCard[slot] = -1;
+            record(3).put(REMOVE_CARD).putShort((short) slot);
+        }
+        if (ui != null) ui.removeCard(slot);
+    }
+
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        synchronized (this) {
+            for (int i = 0; i < cards.length; i++) {
+                slotToCard[slots[i]] = cards[i];
+                record(5).put(PLACE_CARD).putShort((short) slots[i]).putShort((short) cards[i]);
+            }
+        }
+        if (ui != null) ui.placeCards(cards, slots);
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        synchronized (this) {
+            for (int slot : slots) {
+                slotToCard[slot] = -1;
+                record(3).put(REMOVE_CARD).putShort((short) slot);
+            }
+        }
+        if (ui != null) ui.removeCards(slots);
+    }
+
+    @Override
+    public void placeToken(int player, int slot) {
+        synchronized (this) {
+            tokens[player][slot] = true;
+            record(5).put(PLACE_TOKEN).putShort((short) player).putShort((short) slot);
+        }
+        if (ui != null) ui.placeToken(player, slot);
+    }
+
+    @Override
+    public void removeTokens() {
+        synchronized (this) {
+            for (boolean[] playerTokens : tokens) Arrays.fill(playerTokens, false);
+            record(3).put(REMOVE_TOKENS).putShort((short) -1);
+        }
+        if (ui != null) ui.removeTokens();
+    }
+
+    @Override
+    public void removeTokens(int slot) {
+        synchronized (this) {
+            for (boolean[] playerTokens : tokens) playerTokens[slot] = false;
+            record(3).put(REMOVE_TOKENS).putShort((short) slot);
+        }
+        if (ui != null) ui.removeTokens(slot);
+    }
+
+    @Override
+    public void removeToken(int player, int slot) {
+        synchronized (this) {
+            tokens[player][slot] = false;
+            record(5).put(REMOVE_TOKEN).putShort((short) player).putShort((short) slot);
+        }
+        if (ui != null) ui.removeToken(player, slot);
+    }
+
+    @Override
+    public void setCountdown(long millies, boolean warn) {
+        setTimer(COUNTDOWN, millies, warn ? 1 : 0);
+        if (ui != null) ui.setCountdown(millies, warn);
+    }
+
+    @Override
+    public void setElapsed(long millies) {
+        setTimer(ELAPSED, millies, 0);
+        if (ui != null) ui.setElapsed(millies);
+    }
+
+    @Override
+    public void setDeadline(long deadline, long warningMillis) {
+        setTimer(DEADLINE, deadline, warningMillis);
+        if (ui != null) ui.setDeadline(deadline, warningMillis);
+    }
+
+    @Override
+    public void setElapsedSince(long start) {
+        setTimer(ELAPSED_SINCE, start, 0);
+        if (ui != null) ui.setElapsedSince(start);
+    }
+
+    /**
+     * The timer is coalesced: only its last value in each tick is sent.
+     */
+    private synchronized void setTimer(byte timer, long value, long argument) {
+        this.timer = timer;
+        this.timerValue = value;
+        this.timerArgument = argument;
+        this.timerChanged = true;
+    }
+
+    @Override
+    public void setFreeze(int player, long millies) {
+        synchronized (this) {
+            freeze[player] = millies;
+            record(11).put(FREEZE).putShort((short) player).putLong(millies);
+        }
+        if (ui != null) ui.setFreeze(player, millies);
+    }
+
+    @Override
+    public void setScore(int player, int score) {
+        synchronized (this) {
+            scores[player] = score;
+            record(7).put(SCORE).putShort((short) player).putInt(score);
+        }
+        if (ui != null) ui.setScore(player, score);
+    }
+
+    @Override
+    public void announceWinner(int[] players) {
+        synchronized (this) {
+            winners = players.clone();
+            putWinners(record(3 + 2 * players.length), players);
+        }
+        if (ui != null) ui.announceWinner(players);
+    }
+
+    private static void putWinners(ByteBuffer buffer, int[] players) {
+        buffer.put(WINNERS).putShort((short) players.length);
+        for (int player : players) buffer.putShort((short) player);
+    }
+
+    private void putTimer(ByteBuffer buffer) {
+        buffer.put(timer).putLong(timerValue);
+        if (timer == COUNTDOWN) buffer.put((byte) timerArgument);
+        else if (timer == DEADLINE) buffer.putLong(timerArgument);
+    }
+
+    @Override
+    public void dispose() {
+        close();
+        if (ui != null) ui.dispose();
+    }
+
+    /**
+     * Builds the message of the current tick (from the deltas recorded since the previous one).
+     *
+     * @return - the message, or null if nothing changed.
+     */
+    private synchronized Message tickMessage() {
+        if (deltas.position() == 0 && !timerChanged) return null;
+        if (timerChanged) putTimer(record(17));
+        timerChanged = false;
+        deltas.flip();
+        Message message = message(deltas.remaining(), DELTAS);
+        message.buffer.put(deltas).flip();
+        deltas.clear();
+        return message;
+    }
+
+    /**
+     * Builds a snapshot message of the current state.
+     */
+    private synchronized Message snapshotMessage() {
+        Message message = message(config.tableSize * 5 + config.players * (config.tableSize * 5 + 18) + 17 + 3 + 2 * config.players, SNAPSHOT);
+        ByteBuffer records = message.buffer;
+        for (int slot = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] >= 0) records.put(PLACE_CARD).putShort((short) slot).putShort((short) slotToCard[slot]);
+        for (int player = 0; player < tokens.length; player++) {
+            for (int slot = 0; slot < tokens[player].length; slot++)
+                if (tokens[player][slot]) records.put(PLACE_TOKEN).putShort((short) player).putShort((short) slot);
+            records.put(SCORE).putShort((short) player).putInt(scores[player]);
+            records.put(FREEZE).putShort((short) player).putLong(freeze[player]);
+        }
+        putTimer(records);
+        if (winners != null) putWinners(records, winners);
+        records.putInt(0, records.position() - 4).flip(); // the actual length of the rest of the message
+        return message;
+    }
+
+    /**
+     * Takes a buffer from the pool (or allocates one) and writes a message header to it.
+     *
+     * @param size - the maximal size of the message's records.
+     * @param type - the message type.
+     * @return     - the message, positioned after the header.
+     */
+    private Message message(int size, byte type) {
+        Message message = pool.poll();
+        if (message == null || message.buffer.capacity() < HEADER_SIZE + size)
+            message = new Message(ByteBuffer.allocateDirect(Math.max(MIN_MESSAGE_CAPACITY, HEADER_SIZE + size)));
+        message.buffer.clear();
+        message.writers = 0;
+        message.sent = false;
+        message.buffer.putInt(8 + 1 + size).putLong(sequence).put(type);
+        return message;
+    }
+
+    /**
+     * Returns a message's buffer to the pool once its tick is over and no subscriber is writing it.
+     */
+    private void release(Message message) {
+        if (message == null || !message.sent || message.writers > 0) return;
+        if (pool.size() < POOLED_MESSAGES) pool.push(message);
+    }
+
+    /**
+     * The feed thread starts here (accepts spectators and sends a message every tick).
+     */
+    @Override
+    public void run() {
+        logger.log(Level.INFO, "accepting spectators on port " + port());
+        long nextTick = System.currentTimeMillis() + tickMillis;
+        try {
+            while (!closed) {
+                selector.select(Math.max(1, nextTick - System.currentTimeMillis()));
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) accept();
+                    else if (key.isWritable()) write(key, null, null);
+                }
+                if (System.currentTimeMillis() >= nextTick) {
+                    tick();
+                    nextTick += tickMillis;
+                }
+            }
+        } catch (IOException e) {
+            logger.severe("spectator feed failed: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys())
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {}
+            try {
+                selector.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, 0, new Subscriber()); // written to on the next tick
+        }
+    }
+
+    private void tick() {
+        Message message = tickMessage();
+        Message snapshot = null;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Subscriber)) continue;
+            Subscriber subscriber = (Subscriber) key.attachment();
+            if (subscriber.pending != null) {
+                if (message != null) subscriber.resync = true; // too slow for this tick - resync once caught up
+                continue;
+            }
+            if (subscriber.resync && snapshot == null) snapshot = snapshotMessage();
+            write(key, message, snapshot);
+        }
+        sequence++;
+        for (Message sent : new Message[]{message, snapshot}) {
+            if (sent == null) continue;
+            sent.sent = true;
+            release(sent);
+        }
+    }
+
+    /**
+     * Writes to a subscriber: the rest of its pending message, or else a snapshot (if it needs one) or the tick's message.
+     */
+    private void write(SelectionKey key, Message message, Message snapshot) {
+        Subscriber subscriber = (Subscriber) key.attachment();
+        if (subscriber.pending == null) {
+            Message next = subscriber.resync ? snapshot : message;
+            if (next == null) {
+                key.interestOps(0);
+                return;
+            }
+            subscriber.pending = next.buffer.duplicate(); // shares the buffer content - no copy per subscriber
+            subscriber.source = next;
+            next.writers++;
+            subscriber.resync = false;
+        }
+        try {
+            ((SocketChannel) key.channel()).write(subscriber.pending);
+        } catch (IOException e) {
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException ignored) {}
+            done(subscriber);
+            return;
+        }
+        if (subscriber.pending.hasRemaining())
+            key.interestOps(SelectionKey.OP_WRITE);
+        else {
+            done(subscriber);
+            key.interestOps(subscriber.resync ? SelectionKey.OP_WRITE : 0);
+        }
+    }
+
+    /**
+     * Ends the writing of a subscriber's pending message.
+     */
+    private void done(Subscriber subscriber) {
+        Message source = subscriber.source;
+        subscriber.pending = null;
+        subscriber.source = null;
+        if (source == null) return;
+        source.writers--;
+        release(source);
+    }
+
+    /**
+     * Stops the feed thread (which then closes all the connections).
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,356 @@
+package bguspl.set;
+
+import bguspl.set.ex.Dealer;
+import bguspl.set.ex.Player;
+import bguspl.set.ex.Table;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+
+/**
+ * A stress harness for the claim path: drives Player::keyPressed of many synthetic (human) players from a few driver
+ * threads at a given aggregate rate of key presses, with a given share of valid claims, against a real dealer and
+ * table. Freezes and table delays are disabled, and a new game is started whenever one ends (its deck runs out of
+ * sets), so the load is sustained for the whole run.
+ *
+ * Reports the sustained claim throughput, the verdict latency percentiles, claims that were lost (queued but neither
+ * judged nor left in the queue of an ended game), duplicated (queued more than made) or dropped (made but not queued,
+ * e.g. when a press found its player's key press queue full), and the CPU per judged claim.
+ */
+public class StressTest {
+
+    /**
+     * The settings forced on the games under test.
+     */
+    private static final String[][] OVERRIDES = {
+            {"ComputerPlayers", "0"}, {"PointFreezeSeconds", "0"}, {"PenaltyFreezeSeconds", "0"},
+            {"TableDelaySeconds", "0"}, {"EndGamePauseSeconds", "0"}, {"TurnTimeoutSeconds", "0"},
+            {"Hints", "False"}, {"MetricsJmx", "False"}, {"MetricsDumpSeconds", "0"}, {"RandomSpinMax", "0"}
+    };
+
+    private final Logger logger;
+    private final Env env;
+    private final int drivers;
+    private final long pressesPerSecond;
+    private final double validRatio;
+
+    /**
+     * The games under test.
+     */
+    private final Rounds rounds;
+
+    /**
+     * Statistics.
+     */
+    private final LongAdder presses = new LongAdder();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder validSubmitted = new LongAdder();
+
+    /**
+     * A single game: its table, players and dealer.
+     */
+    static class Round {
+
+        final Table table;
+        final Player[] players;
+        final Dealer dealer;
+        Future<?> dealerThread;
+
+        Round(Env env) {
+            table = new Table(env, ThreadLocalRandom.current().nextLong());
+            players = new Player[env.config.players];
+            dealer = new Dealer(env, table, players);
+            for (int i = 0; i < players.length; i++)
+                players[i] = new Player(env, dealer, table, i, true);
+        }
+    }
+
+    /**
+     * The games of a load test, one at a time: a new game is started whenever the current one ends, so the load is
+     * sustained, and the ended game is terminated once the drivers are done with it.
+     */
+    static class Rounds {
+
+        private final Logger logger;
+        private final Env env;
+        private final String name;
+
+        /**
+         * The game currently under test (replaced whenever a game ends).
+         */
+        private volatile Round current;
+
+        /**
+         * Statistics.
+         */
+        final LongAdder started = new LongAdder();
+        final LongAdder unjudged = new LongAdder();
+
+        /**
+         * @param logger - the logger of the test.
+         * @param env    - the environment of the games (see createEnv).
+         * @param name   - the name of the test (for the log).
+         */
+        Rounds(Logger logger, Env env, String name) {
+            this.logger = logger;
+            this.env = env;
+            this.name = name;
+        }
+
+        /**
+         * @return - the game currently under test.
+         */
+        Round current() {
+            return current;
+        }
+
+        private Round start() {
+            Round next = new Round(env);
+            next.dealerThread = env.executor.submit(ThreadLogger.named(next.dealer, "dealer", env.logger));
+            started.increment();
+            return next;
+        }
+
+        /**
+         * Ends a game that is no longer driven, counting the claims it left unjudged.
+         */
+        private void end(Round ended) throws InterruptedException {
+            Thread.sleep(50); // let the drivers finish the presses they started on it
+            ended.dealer.terminate();
+            try {
+                ended.dealerThread.get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                logger.severe(name + ": a dealer did not end cleanly: " + e);
+            }
+            unjudged.add(ended.table.getQueue().size());
+        }
+
+        /**
+         * Starts the first game and the driver threads, replaces every game that ends until the end time, and then
+         * waits for the drivers and ends the last game.
+         *
+         * @param drivers      - the driver threads (not started yet), which drive the current game until the end time.
+         * @param endNanos     - the end time (in System.nanoTime() terms).
+         * @param reportMillis - the time between progress reports.
+         * @param report       - reports the progress.
+         */
+        void run(Thread[] drivers, long endNanos, long reportMillis, Runnable report) throws InterruptedException {
+            current = start();
+            for (Thread driver : drivers) driver.start();
+
+            long nextReport = System.nanoTime() + reportMillis * 1_000_000L;
+            while (System.nanoTime() < endNanos) {
+                Thread.sleep(1);
+                if (current.dealer.isFinished()) {
+                    Round ended = current;
+                    current = start();
+                    end(ended);
+                }
+                if (reportMillis > 0 && System.nanoTime() >= nextReport) {
+                    report.run();
+                    nextReport += reportMillis * 1_000_000L;
+                }
+            }
+            for (Thread driver : drivers) driver.join();
+            Thread.sleep(200); // let the dealer judge the last claims
+            end(current);
+        }
+    }
+
+    /**
+     * @param logger           - the logger to report to.
+     * @param properties       - the game configuration (the players are taken from HumanPlayers).
+     * @param drivers          - the number of driver threads.
+     * @param pressesPerSecond - the aggregate rate of key presses.
+     * @param validRatio       - the share (0 to 1) of claims made on a legal set.
+     */
+    public StressTest(Logger logger, Properties properties, int drivers, long pressesPerSecond, double validRatio) {
+        this.logger = logger;
+        this.drivers = drivers;
+        this.pressesPerSecond = pressesPerSecond;
+        this.validRatio = validRatio;
+
+        env = createEnv(logger, properties, "stress");
+        rounds = new Rounds(logger, env, "stress");
+    }
+
+    /**
+     * Creates the environment of the games under a load test (with the test's settings forced, no logging and no
+     * user interface).
+     *
+     * @param logger     - the logger of the test.
+     * @param properties - the game configuration.
+     * @param name       - the name of the test (the games log to a child logger of that name).
+     * @return           - the environment.
+     */
+    static Env createEnv(Logger logger, Properties properties, String name) {
+        Properties gameProperties = new Properties();
+        gameProperties.putAll(properties);
+        for (String[] override : OVERRIDES) gameProperties.setProperty(override[0], override[1]);
+        gameProperties.setProperty("LogLevel", "OFF");
+        gameProperties.remove("JournalFile");
+        gameProperties.remove("ReplayFile");
+        gameProperties.remove("InputTraceFile");
+        gameProperties.remove("LeaderboardDirectory");
+
+        Logger gameLogger = Logger.getLogger(logger.getName() + "." + name);
+        gameLogger.setUseParentHandlers(false);
+        Config config = new Config(gameLogger, gameProperties);
+        Util util = new UtilImpl(config);
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new Env(gameLogger, config, new UserInterfaceDecorator(gameLogger, util, null), util, new Metrics(), executor);
+    }
+
+    /**
+     * The main loop of a driver thread: makes claims for the players it owns (every drivers-th player) in turn,
+     * pacing its share of the key presses.
+     */
+    private void drive(int driver, long endNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int tableSize = env.config.tableSize;
+        int claimSize = env.config.setSize;
+        long rate = Math.max(1, pressesPerSecond / drivers);
+        long start = System.nanoTime();
+        long done = 0;
+        int next = driver;
+        int[] slots = new int[claimSize];
+        for (long now = start; now < endNanos; now = System.nanoTime()) {
+            long due = (now - start) * rate / 1_000_000_000L;
+            while (done < due) {
+                Round current = rounds.current();
+                Player player = current.players[next];
+                next += drivers;
+                if (next >= current.players.length) next = driver;
+
+                boolean valid = false;
+                if (random.nextDouble() < validRatio) {
+                    List<int[]> sets = current.table.getSolver().solutions().slots;
+                    if (!sets.isEmpty()) {
+                        System.arraycopy(sets.get(random.nextInt(sets.size())), 0, slots, 0, claimSize);
+                        valid = true;
+                    }
+                }
+                if (!valid) randomSlots(random, slots, tableSize);
+
+                player.cancelPrevSelection();
+                for (int slot : slots) player.keyPressed(slot);
+                done += claimSize;
+                presses.add(claimSize);
+                submitted.increment();
+                if (valid) validSubmitted.increment();
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static void randomSlots(ThreadLocalRandom random, int[] slots, int tableSize) {
+        for (int i = 0; i < slots.length; i++) {
+            boolean distinct;
+            do {
+                slots[i] = random.nextInt(tableSize);
+                distinct = true;
+                for (int j = 0; j < i; j++) distinct &= slots[j] != slots[i];
+            } while (!distinct);
+        }
+    }
+
+    /**
+     * Runs the stress test.
+     *
+     * @param durationMillis - the time to drive the players for.
+     * @param reportMillis   - the time between progress reports.
+     * @return               - the final report.
+     */
+    public String run(long durationMillis, long reportMillis) throws InterruptedException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long startCpu = processCpuNanos(os);
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000L;
+
+        Thread[] threads = new Thread[Math.min(drivers, env.config.players)];
+        for (int i = 0; i < threads.length; i++) {
+            int driver = i;
+            threads[i] = new Thread(() -> drive(driver, end), "stress-driver-" + i);
+        }
+        rounds.run(threads, end, reportMillis, () -> logger.info(report(System.nanoTime() - start, processCpuNanos(os) - startCpu)));
+        String report = report(System.nanoTime() - start, processCpuNanos(os) - startCpu);
+        if (env.locks.isEnabled()) report += System.lineSeparator() + env.locks.report();
+        env.executor.shutdownNow();
+        return report;
+    }
+
+    static long processCpuNanos(OperatingSystemMXBean os) {
+        if (os instanceof com.sun.management.OperatingSystemMXBean)
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        return 0;
+    }
+
+    private String report(long elapsedNanos, long cpuNanos) {
+        Metrics metrics = env.metrics;
+        long queued = metrics.getClaims();
+        long judged = metrics.getPoints() + metrics.getPenalties() + metrics.getRuinedClaims();
+        double seconds = elapsedNanos / 1e9;
+        return String.format("stress: %d players, %d games, %.1f s: presses=%d (%.0f/s) claims=%d (%d valid) queued=%d judged=%d (%.0f/s)"
+                        + " points=%d penalties=%d ruined=%d unjudged=%d lost=%d duplicated=%d dropped=%d (presses %d)"
+                        + " latency p50=%.1f us p99=%.1f us p999=%.1f us max=%.1f us cpu/claim=%.1f us",
+                env.config.players, rounds.started.sum(), seconds, presses.sum(), presses.sum() / seconds, submitted.sum(),
+                validSubmitted.sum(), queued, judged, judged / seconds, metrics.getPoints(), metrics.getPenalties(),
+                metrics.getRuinedClaims(), rounds.unjudged.sum(), Math.max(0, queued - judged - rounds.unjudged.sum() - metrics.getClaimQueueDepth()),
+                Math.max(0, queued - submitted.sum()), Math.max(0, submitted.sum() - queued), metrics.getDroppedKeyPresses(),
+                metrics.claimLatency.getP50Micros(), metrics.claimLatency.getP99Micros(), metrics.claimLatency.getP999Micros(),
+                metrics.claimLatency.getMaxMicros(), judged == 0 ? 0 : cpuNanos / 1e3 / judged);
+    }
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args - players (default 100), presses per second (default 100000), seconds (default 10), valid claims
+     *               ratio (default 0.5), driver threads (default: the number of processors), configuration file
+     *               (default config.properties).
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        long rate = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        double validRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        int drivers = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        String filename = args.length > 5 ? args[5] : "config.properties";
+
+        Logger logger = Main.initLogger();
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get(filename))) {
+            properties.load(is);
+        } catch (IOException e) {
+            logger.severe("cannot read configuration file " + filename + ", using defaults.");
+        }
+        properties.setProperty("HumanPlayers", Integer.toString(players));
+
+        StressTest test = new StressTest(logger, properties, drivers, rate, validRatio);
+        String report = test.run((long) (seconds * 1000), 1000);
+        logger.severe(report);
+        System.out.println(report);
+        for (Handler h : logger.getHandlers()) h.flush();
+    }
+}
@@ -24,6 +24,29 @@ public class ThreadLogger extends Thread {
         }
     }
 
+    /**
+     * Wraps a task so it runs under the given thread name (e.g. on a pooled thread), logging its start and stop.
+     *
+     * @param target - the task.
+     * @param name   - the thread name to run the task under.
+     * @param logger - the logger to log to.
+     * @return - the wrapped task.
+     */
+    public static Runnable named(Runnable target, String name, Logger logger) {
+        return () -> {
+            Thread thread = Thread.currentThread();
+            String previousName = thread.getName();
+            thread.setName(name);
+            logStart(logger, name);
+            try {
+                target.run();
+            } finally {
+                logStop(logger, name);
+                thread.setName(previousName);
+            }
+        };
+    }
+
     public static void logStart(Logger logger, String name) {
         logger.info("thread " + name + " starting.");
     }
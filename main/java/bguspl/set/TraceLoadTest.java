@@ -0,0 +1,211 @@
+package bguspl.set;
+
+import bguspl.set.ex.Player;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+
+/**
+ * A load test driven by recorded human input (see InputTrace): every synthetic player replays the key presses of one
+ * of the recorded players (round robin over all the tracks of all the traces) with their original timing - bursts,
+ * think pauses and tokens removed again - starting at a random point of its track and looping over it, so any number
+ * of players can be driven by a few recordings. The presses go to Player::keyPressed of a real dealer and table (with
+ * the settings of StressTest), and a new game is started whenever one ends.
+ *
+ * The recorded slots are replayed as they are (the cards under them differ), so the share of legal claims is not the
+ * recorded one - the timing and the mix of presses, cancellations and claims are.
+ */
+public class TraceLoadTest {
+
+    private final Logger logger;
+    private final Env env;
+    private final List<InputTrace.Track> tracks;
+    private final int drivers;
+    private final double speed;
+
+    /**
+     * The games under test.
+     */
+    private final StressTest.Rounds rounds;
+
+    /**
+     * Statistics.
+     */
+    private final LongAdder presses = new LongAdder();
+
+    /**
+     * @param logger     - the logger to report to.
+     * @param properties - the game configuration (the players are taken from HumanPlayers).
+     * @param tracks     - the recorded tracks to replay (at least one).
+     * @param drivers    - the number of driver threads.
+     * @param speed      - the replay speed (1 for the recorded timing, 2 for twice as fast, etc.).
+     */
+    public TraceLoadTest(Logger logger, Properties properties, List<InputTrace.Track> tracks, int drivers, double speed) {
+        if (tracks.isEmpty()) throw new IllegalArgumentException("no recorded key presses to replay");
+        this.logger = logger;
+        this.tracks = tracks;
+        this.drivers = drivers;
+        this.speed = speed;
+        env = StressTest.createEnv(logger, properties, "trace");
+        rounds = new StressTest.Rounds(logger, env, "trace");
+    }
+
+    /**
+     * @param track - a recorded track.
+     * @return      - the nanoseconds a replay of the track takes before it starts over (the think time before its
+     *                first press is repeated between the loops).
+     */
+    private long periodNanos(InputTrace.Track track) {
+        return (long) ((track.duration() + Math.max(1, track.times[0])) * 1e6 / speed);
+    }
+
+    /**
+     * The main loop of a driver thread: replays the tracks of the players it owns (every drivers-th player), each from
+     * a random point of its track.
+     */
+    private void drive(int driver, long startNanos, long endNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int tableSize = env.config.tableSize;
+        int owned = (env.config.players - driver + drivers - 1) / drivers;
+        InputTrace.Track[] replayed = new InputTrace.Track[owned];
+        long[] loopStart = new long[owned];
+        int[] next = new int[owned];
+        for (int i = 0; i < owned; i++) {
+            InputTrace.Track track = tracks.get((driver + i * drivers) % tracks.size());
+            replayed[i] = track;
+            long offset = random.nextLong(periodNanos(track));
+            loopStart[i] = startNanos - offset;
+            int found = Arrays.binarySearch(track.times, (long) (offset * speed / 1e6));
+            next[i] = found >= 0 ? found : -found - 1; // the first press at or after the offset
+            if (next[i] == track.times.length) {
+                next[i] = 0;
+                loopStart[i] += periodNanos(track);
+            }
+        }
+
+        for (long now = startNanos; now < endNanos; now = System.nanoTime()) {
+            StressTest.Round current = rounds.current();
+            for (int i = 0; i < owned; i++) {
+                InputTrace.Track track = replayed[i];
+                Player player = current.players[driver + i * drivers];
+                while (loopStart[i] + (long) (track.times[next[i]] * 1e6 / speed) <= now) {
+                    player.keyPressed(track.slots[next[i]] % tableSize);
+                    presses.increment();
+                    if (++next[i] == track.times.length) {
+                        next[i] = 0;
+                        loopStart[i] += periodNanos(track);
+                    }
+                }
+            }
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param durationMillis - the time to drive the players for.
+     * @param reportMillis   - the time between progress reports.
+     * @return               - the final report.
+     */
+    public String run(long durationMillis, long reportMillis) throws InterruptedException {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long startCpu = StressTest.processCpuNanos(os);
+        long start = System.nanoTime();
+        long end = start + durationMillis * 1_000_000L;
+
+        Thread[] threads = new Thread[Math.min(drivers, env.config.players)];
+        for (int i = 0; i < threads.length; i++) {
+            int driver = i;
+            threads[i] = new Thread(() -> drive(driver, start, end), "trace-driver-" + i);
+        }
+        rounds.run(threads, end, reportMillis, () -> logger.info(report(System.nanoTime() - start, StressTest.processCpuNanos(os) - startCpu)));
+        String report = report(System.nanoTime() - start, StressTest.processCpuNanos(os) - startCpu);
+        if (env.locks.isEnabled()) report += System.lineSeparator() + env.locks.report();
+        env.executor.shutdownNow();
+        return report;
+    }
+
+    private String report(long elapsedNanos, long cpuNanos) {
+        Metrics metrics = env.metrics;
+        long recordedPresses = 0, recordedMillis = 0;
+        for (InputTrace.Track track : tracks) {
+            recordedPresses += track.times.length;
+            recordedMillis += track.duration();
+        }
+        long queued = metrics.getClaims();
+        long judged = metrics.getPoints() + metrics.getPenalties() + metrics.getRuinedClaims();
+        double seconds = elapsedNanos / 1e9;
+        return String.format("trace: %d players (%.0fx the %d recorded, %.1f presses/s each at %.1fx speed), %d games, %.1f s:"
+                        + " presses=%d (%.0f/s) claims=%d (%.0f/s) judged=%d points=%d penalties=%d ruined=%d unjudged=%d dropped=%d"
+                        + " latency p50=%.1f us p99=%.1f us p999=%.1f us max=%.1f us cpu/claim=%.1f us",
+                env.config.players, (double) env.config.players / tracks.size(), tracks.size(),
+                recordedMillis == 0 ? 0 : recordedPresses * 1000.0 / recordedMillis * speed, speed, rounds.started.sum(), seconds,
+                presses.sum(), presses.sum() / seconds, queued, queued / seconds, judged, metrics.getPoints(),
+                metrics.getPenalties(), metrics.getRuinedClaims(), rounds.unjudged.sum(), metrics.getDroppedKeyPresses(),
+                metrics.claimLatency.getP50Micros(), metrics.claimLatency.getP99Micros(), metrics.claimLatency.getP999Micros(),
+                metrics.claimLatency.getMaxMicros(), judged == 0 ? 0 : cpuNanos / 1e3 / judged);
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args - players, seconds, trace files (recorded with the InputTraceFile setting). The replay speed
+     *               (default 1) and driver threads (default: the number of processors) are taken from the TraceSpeed
+     *               and TraceDrivers system properties, and the game configuration from config.properties.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3) {
+            System.err.println("usage: java bguspl.set.TraceLoadTest <players> <seconds> <trace files...>");
+            return;
+        }
+        int players = Integer.parseInt(args[0]);
+        double seconds = Double.parseDouble(args[1]);
+        double speed = Double.parseDouble(System.getProperty("TraceSpeed", "1"));
+        int drivers = Integer.getInteger("TraceDrivers", Runtime.getRuntime().availableProcessors());
+
+        Logger logger = Main.initLogger();
+        List<InputTrace.Track> tracks = new ArrayList<>();
+        for (int i = 2; i < args.length; i++)
+            try {
+                tracks.addAll(InputTrace.load(args[i]));
+            } catch (IOException e) {
+                logger.severe("cannot load input trace " + args[i] + ": " + e.getMessage());
+                System.err.println("cannot load input trace " + args[i] + ": " + e.getMessage());
+            }
+        if (tracks.isEmpty()) {
+            System.err.println("no recorded key presses to replay");
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(Paths.get("config.properties"))) {
+            properties.load(is);
+        } catch (IOException e) {
+            logger.severe("cannot read configuration file config.properties, using defaults.");
+        }
+        properties.setProperty("HumanPlayers", Integer.toString(players));
+
+        TraceLoadTest test = new TraceLoadTest(logger, properties, tracks, drivers, speed);
+        String report = test.run((long) (seconds * 1000), 1000);
+        logger.severe(report);
+        System.out.println(report);
+        for (Handler h : logger.getHandlers()) h.flush();
+    }
+}
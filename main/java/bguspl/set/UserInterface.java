@@ -18,6 +18,26 @@ public interface UserInterface {
      */
     void removeCard(int slot);
 
+    /**
+     * Draw the card images of several cards at once (e.g. when the table is dealt). The user interface may show the
+     * cards one after the other (the table delay), without delaying the caller.
+     * @param cards - the card ids.
+     * @param slots - the slot of each card.
+     */
+    default void placeCards(int[] cards, int[] slots) {
+        for (int i = 0; i < cards.length; i++)
+            placeCard(cards[i], slots[i]);
+    }
+
+    /**
+     * Draw an empty card image in several slots at once.
+     * @param slots - the slot numbers.
+     */
+    default void removeCards(int[] slots) {
+        for (int slot : slots)
+            removeCard(slot);
+    }
+
     /**
      * Draw a player name text in the specified slot.
      * @param player - the card id.
@@ -56,6 +76,20 @@ public interface UserInterface {
      */
     void setElapsed(long millies);
 
+    /**
+     * Show a countdown to the specified deadline. The countdown is rendered by the user interface at its own rate
+     * (i.e. this is called once per deadline and not for every displayed value).
+     * @param deadline      - the deadline (in game clock terms, see Clock::millis).
+     * @param warningMillis - the countdown is shown as a warning (see setCountdown) for the last warningMillis.
+     */
+    void setDeadline(long deadline, long warningMillis);
+
+    /**
+     * Show the time elapsed since the specified start time. The time is rendered by the user interface at its own rate.
+     * @param start - the start time (in game clock terms, see Clock::millis).
+     */
+    void setElapsedSince(long start);
+
     /**
      * Set the player text in the score panel to show remaining freeze time.
      * If milliseconds > 0, show player name in red, and add freeze time.
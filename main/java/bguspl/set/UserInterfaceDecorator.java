@@ -33,6 +33,20 @@ public class UserInterfaceDecorator implements UserInterface {
         if (ui != null) ui.removeCard(slot);
     }
 
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        logger.severe("placing cards " + Arrays.toString(cards) + " in slots " + Arrays.toString(slots));
+        util.spin();
+        if (ui != null) ui.placeCards(cards, slots);
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        logger.severe("removing cards from slots " + Arrays.toString(slots));
+        util.spin();
+        if (ui != null) ui.removeCards(slots);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         logger.severe("player " + (player + 1) + " placing token on slot " + slot);
@@ -75,6 +89,18 @@ public class UserInterfaceDecorator implements UserInterface {
         if (ui != null) ui.setElapsed(millies);
     }
 
+    @Override
+    public void setDeadline(long deadline, long warningMillis) {
+        logger.severe("setting countdown deadline to " + deadline + " (warning for the last " + warningMillis + " ms)");
+        if (ui != null) ui.setDeadline(deadline, warningMillis);
+    }
+
+    @Override
+    public void setElapsedSince(long start) {
+        logger.severe("setting elapsed time start to " + start);
+        if (ui != null) ui.setElapsedSince(start);
+    }
+
     @Override
     public void setFreeze(int player, long millies) {
         logger.severe("setting player " + (player + 1) + " freeze to " + millies);
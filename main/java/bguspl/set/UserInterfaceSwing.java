@@ -6,6 +6,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.io.FileNotFoundException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
@@ -24,13 +25,38 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
     private final WinnerPanel winnerPanel;
     private final Config config;
 
+    /**
+     * The live statistics drawn under the players' scores (null if not shown).
+     */
+    private final GameStats stats;
+
+    /**
+     * The game's clock (the countdown and the statistics are timed by it).
+     */
+    private final Clock clock;
+
+    /**
+     * The keyboard input handler (closed with the window, so its input trace is complete).
+     */
+    private final InputManager inputManager;
+
     static String intInBaseToPaddedString(int n, int padding, int base) {
         return format("%" + padding + "s", Integer.toString(n, base)).replace(' ', '0');
     }
 
     public UserInterfaceSwing(Logger logger, Config config, Player[] players) {
+        this(logger, config, players, null, new RealClock());
+    }
+
+    /**
+     * @param stats - the live statistics to draw under the players' scores (null for none).
+     * @param clock - the game's clock.
+     */
+    public UserInterfaceSwing(Logger logger, Config config, Player[] players, GameStats stats, Clock clock) {
 
         this.config = config;
+        this.stats = stats;
+        this.clock = clock;
         timerPanel = new TimerPanel();
         gamePanel = new GamePanel();
         playersPanel = new PlayersPanel();
@@ -63,16 +89,39 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         setLocationRelativeTo(null);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        addKeyListener(new InputManager(logger, config, players));
-        addWindowListener(new WindowManager());
+        inputManager = new InputManager(logger, config, players);
+        addKeyListener(inputManager);
+        addWindowListener(new WindowManager(inputManager));
 
         EventQueue.invokeLater(() -> setVisible(true));
     }
 
     private class TimerPanel extends JPanel {
 
+        /**
+         * The rate at which a deadline or an elapsed time is rendered.
+         */
+        private static final int RENDER_MILLIS = 10;
+
         private final JLabel timerField;
 
+        /**
+         * The deadline (or elapsed time start) set by the dealer, rendered by the swing timer on the event thread.
+         */
+        private final Timer renderTimer = new Timer(RENDER_MILLIS, e -> render());
+        private volatile long deadline;
+        private volatile long warningMillis;
+        private volatile boolean elapsedMode;
+
+        /**
+         * The displayed texts, formatted once: whole seconds, hundredths of a second (warning) and elapsed seconds.
+         */
+        private final String[] secondsTexts;
+        private final String[] warningTexts;
+        private String[] elapsedTexts = new String[64];
+        private long displayed = -1;
+        private boolean displayedWarning;
+
         private String generateTime(long millies, boolean warn) {
             if (warn)
                 return format("Remaining Time: %.2f", (double) millies / 1000.0f);
@@ -88,6 +137,75 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
             timerField.setForeground(Color.BLACK);
 
             add(timerField);
+
+            secondsTexts = new String[(int) (Math.max(0, config.turnTimeoutMillis) / 1000) + 2];
+            warningTexts = new String[(int) (Math.max(0, config.turnTimeoutWarningMillis) / 10) + 2];
+        }
+
+        private void setDeadline(long deadline, long warningMillis) {
+            this.warningMillis = warningMillis;
+            this.deadline = deadline;
+            this.elapsedMode = false;
+            startRendering();
+        }
+
+        private void setElapsedSince(long start) {
+            this.deadline = start;
+            this.elapsedMode = true;
+            startRendering();
+        }
+
+        private void startRendering() {
+            EventQueue.invokeLater(() -> {
+                displayed = -1;
+                render();
+                if (!renderTimer.isRunning()) renderTimer.start();
+            });
+        }
+
+        private void stopRendering() {
+            renderTimer.stop();
+        }
+
+        /**
+         * Renders the current value, changing the label only when the displayed text changes.
+         */
+        private void render() {
+            long now = clock.millis();
+            if (elapsedMode) {
+                long seconds = (now - deadline) / 1000;
+                if (seconds == displayed) return;
+                displayed = seconds;
+                timerField.setText(elapsedText((int) seconds));
+                return;
+            }
+            long remaining = Math.max(0, deadline - now);
+            boolean warn = remaining <= warningMillis;
+            long index = warn ? (remaining + 9) / 10 : (remaining + 999) / 1000;
+            if (index == displayed && warn == displayedWarning) return;
+            displayed = index;
+            displayedWarning = warn;
+            timerField.setText(warn ? warningText((int) index) : secondsText((int) index));
+            timerField.setForeground(warn ? Color.RED : Color.BLACK);
+        }
+
+        private String secondsText(int seconds) {
+            if (seconds >= secondsTexts.length) return generateTime(seconds * 1000L, false);
+            if (secondsTexts[seconds] == null) secondsTexts[seconds] = generateTime(seconds * 1000L, false);
+            return secondsTexts[seconds];
+        }
+
+        private String warningText(int centis) {
+            if (centis >= warningTexts.length) return generateTime(centis * 10L, true);
+            if (warningTexts[centis] == null) warningTexts[centis] = generateTime(centis * 10L, true);
+            return warningTexts[centis];
+        }
+
+        private String elapsedText(int seconds) {
+            if (seconds < 0) seconds = 0;
+            if (seconds >= elapsedTexts.length) elapsedTexts = Arrays.copyOf(elapsedTexts, Math.max(seconds + 1, elapsedTexts.length * 2));
+            if (elapsedTexts[seconds] == null) elapsedTexts[seconds] = "Elapsed time: " + seconds;
+            return elapsedTexts[seconds];
         }
 
         private void setCountdown(long millies, boolean warn) {
@@ -108,6 +226,12 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         private final boolean[][][] playerTokens;
         private final JLabel[][] tokenText;
 
+        /**
+         * The cards being dealt (slot and card of each one), shown one every table delay on the event thread.
+         */
+        private final ArrayDeque<int[]> dealing = new ArrayDeque<>();
+        private final Timer dealTimer = new Timer((int) Math.max(1, config.tableDelayMillis), e -> dealNext());
+
         private Image loadImageResource(String filename) {
             URL imageResource = getClass().getClassLoader().getResource(filename);
             if (imageResource == null)
@@ -146,6 +270,40 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
                     add(tokenText[row][column]);
                 }
             }
+            dealTimer.setInitialDelay(0);
+        }
+
+        private void placeCards(int[] cards, int[] slots) {
+            EventQueue.invokeLater(() -> {
+                for (int i = 0; i < cards.length; i++)
+                    dealing.add(new int[]{slots[i], cards[i]});
+                if (config.tableDelayMillis <= 0) {
+                    while (!dealing.isEmpty()) {
+                        int[] next = dealing.poll();
+                        grid[next[0] / config.columns][next[0] % config.columns] = deck[next[1]];
+                    }
+                    repaint();
+                } else if (!dealTimer.isRunning()) dealTimer.start();
+            });
+        }
+
+        private void dealNext() {
+            int[] next = dealing.poll();
+            if (next == null) {
+                dealTimer.stop();
+                return;
+            }
+            placeCard(next[0], next[1]);
+        }
+
+        private void removeCards(int[] slots) {
+            EventQueue.invokeLater(() -> {
+                for (int slot : slots) {
+                    dealing.removeIf(pending -> pending[0] == slot);
+                    grid[slot / config.columns][slot % config.columns] = emptyCard;
+                }
+                repaint();
+            });
         }
 
         private void placeCard(int slot, int card) {
@@ -214,12 +372,23 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     private class PlayersPanel extends JPanel {
 
+        /**
+         * The rate at which the live statistics are redrawn.
+         */
+        private static final int STATS_MILLIS = 1000;
+
         private final JLabel[][] playersTable;
 
+        /**
+         * Redraws the live statistics on the event thread (reading them takes no lock of the game).
+         */
+        private final Timer statsTimer = new Timer(STATS_MILLIS, e -> renderStats());
+
         private PlayersPanel() {
-            this.setLayout(new GridLayout(2, config.players));
+            int rows = stats == null ? 2 : 3;
+            this.setLayout(new GridLayout(rows, config.players));
             this.setPreferredSize(new Dimension(config.players * config.playerCellWidth, config.rows * config.playerCellHeight));
-            this.playersTable = new JLabel[2][config.players];
+            this.playersTable = new JLabel[rows][config.players];
             for (int i = 0; i < config.players; i++) {
                 this.playersTable[0][i] = new JLabel(config.playerNames[i]);
                 this.playersTable[0][i].setFont(new Font("Serif", Font.BOLD, config.fontSize));
@@ -233,6 +402,22 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
                 this.playersTable[1][i].setHorizontalAlignment(JLabel.CENTER);
                 this.add(playersTable[1][i]);
             }
+
+            if (stats != null) {
+                for (int i = 0; i < config.players; i++) {
+                    this.playersTable[2][i] = new JLabel(" ");
+                    this.playersTable[2][i].setFont(new Font("Serif", Font.PLAIN, config.fontSize / 2));
+                    this.playersTable[2][i].setHorizontalAlignment(JLabel.CENTER);
+                    this.add(playersTable[2][i]);
+                }
+                statsTimer.start();
+            }
+        }
+
+        private void renderStats() {
+            long now = clock.millis();
+            for (int i = 0; i < config.players; i++)
+                playersTable[2][i].setText(stats.summary(i, now));
         }
 
         private void setFreeze(int player, long millies) {
@@ -284,6 +469,16 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         gamePanel.removeCard(slot);
     }
 
+    @Override
+    public void placeCards(int[] cards, int[] slots) {
+        gamePanel.placeCards(cards, slots);
+    }
+
+    @Override
+    public void removeCards(int[] slots) {
+        gamePanel.removeCards(slots);
+    }
+
     @Override
     public void placeToken(int player, int slot) {
         gamePanel.placeToken(player, slot);
@@ -314,6 +509,16 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
         timerPanel.setElapsed(millies);
     }
 
+    @Override
+    public void setDeadline(long deadline, long warningMillis) {
+        timerPanel.setDeadline(deadline, warningMillis);
+    }
+
+    @Override
+    public void setElapsedSince(long start) {
+        timerPanel.setElapsedSince(start);
+    }
+
     @Override
     public void setFreeze(int player, long millies) {
         playersPanel.setFreeze(player, millies);
@@ -333,6 +538,10 @@ public class UserInterfaceSwing extends JFrame implements UserInterface {
 
     @Override
     public void dispose() {
+        timerPanel.stopRendering();
+        gamePanel.dealTimer.stop();
+        playersPanel.statsTimer.stop();
+        inputManager.close();
         super.dispose();
     }
 }
@@ -23,6 +23,33 @@ public interface Util {
      */
     int[][] cardsToFeatures(int[] cards);
 
+    /**
+     * Converts a card id to its features (see cardToFeatures method), into a given array (with no allocation).
+     *
+     * @param card     - the card id.
+     * @param features - the array to write the features to (of at least config.featureCount values).
+     */
+    void cardToFeatures(int card, int[] features);
+
+    /**
+     * Converts an array of card ids to their features (see cardToFeatures method), into a given 2d array (with no
+     * allocation).
+     *
+     * @param cards    - an array of card ids.
+     * @param features - the 2d array to write the features to (an array of at least config.featureCount values for
+     *                   each card, respectively).
+     */
+    void cardsToFeatures(int[] cards, int[][] features);
+
+    /**
+     * Returns a single feature of a card (with no allocation).
+     *
+     * @param card    - the card id.
+     * @param feature - the feature (between 0 and config.featureCount - 1).
+     * @return - the value of the feature (between 0 and config.featureSize - 1).
+     */
+    int feature(int card, int feature);
+
     /**
      * Checks if an array of cards forms a legal set.
      *
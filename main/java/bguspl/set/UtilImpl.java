@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.IntStream;
 
 /**
  * The implementation of the UserInterface interface.
@@ -12,72 +11,128 @@ import java.util.stream.IntStream;
 public class UtilImpl implements Util {
 
     private final Config config;
+    private final int featureCount;
+
+    /**
+     * The features of every card in the deck, computed once (the features of card c are at c * featureCount, in the
+     * order of cardToFeatures), so looking them up takes no division or allocation.
+     */
+    private final int[] featureTable;
+
+    /**
+     * The rule of what is a legal set, compiled (see CompiledSetRule).
+     */
+    private final CompiledSetRule rule;
+
+    /**
+     * The cache of the sets found in small collections of cards (null if not cached).
+     */
+    private final SetCache cache;
 
     public UtilImpl(Config config) {
-        this.config = config;
+        this(config, SetRule.of(config));
     }
 
-    private void cardToFeatures(int card, int[] features) {
-        for (int i = config.featureCount - 1; i >= 0; --i) {
-            features[i] = card % config.featureSize;
-            card /= config.featureSize;
+    /**
+     * @param rule - the rule of what is a legal set (compiled once, here).
+     */
+    public UtilImpl(Config config, SetRule rule) {
+        this(config, rule, config.setCacheSize > 0 ? new SetCache(config.setCacheSize, config.deckSize) : null);
+    }
+
+    /**
+     * @param rule  - the rule of what is a legal set (compiled once, here).
+     * @param cache - the cache of the sets found in collections of up to config.tableSize cards (null for none). It may
+     *                be shared by utilities with the same deck and rule (see SetCache::key).
+     */
+    public UtilImpl(Config config, SetRule rule, SetCache cache) {
+        this.config = config;
+        this.cache = cache;
+        this.featureCount = config.featureCount;
+        this.featureTable = new int[config.deckSize * featureCount];
+        for (int card = 0; card < config.deckSize; ++card) {
+            int rest = card;
+            for (int i = featureCount - 1; i >= 0; --i) {
+                featureTable[card * featureCount + i] = rest % config.featureSize;
+                rest /= config.featureSize;
+            }
         }
+        this.rule = new CompiledSetRule(config, rule);
+    }
+
+    @Override
+    public void cardToFeatures(int card, int[] features) {
+        System.arraycopy(featureTable, card * featureCount, features, 0, featureCount);
     }
 
     @Override
     public int[] cardToFeatures(int card) {
-        int[] features = new int[config.featureCount];
+        int[] features = new int[featureCount];
         cardToFeatures(card, features);
         return features;
     }
 
+    @Override
+    public void cardsToFeatures(int[] cards, int[][] features) {
+        for (int i = 0; i < cards.length; ++i)
+            System.arraycopy(featureTable, cards[i] * featureCount, features[i], 0, featureCount);
+    }
+
     @Override
     public int[][] cardsToFeatures(int[] cards) {
-        int[][] features = new int[cards.length][config.featureCount];
-        IntStream.range(0, cards.length).forEach(i -> cardToFeatures(cards[i], features[i]));
+        int[][] features = new int[cards.length][featureCount];
+        cardsToFeatures(cards, features);
         return features;
     }
 
+    @Override
+    public int feature(int card, int feature) {
+        return featureTable[card * featureCount + feature];
+    }
+
     @Override
     public boolean testSet(int[] cards) {
-        int[][] features = cardsToFeatures(Arrays.copyOf(cards, cards.length));
-        for (int i = 0; i < config.featureCount; ++i) {
-            boolean sameSame = true, butDifferent = true;
-
-            // check if this features is sameSame in all cards
-            for (int j = 1; j < features.length; ++j)
-                if (features[0][i] != features[j][i]) {
-                    sameSame = false;
-                    break;
-                }
-
-            // check if this feature is butDifferent in all cards
-            for (int j = 1; j < features.length; ++j)
-                for (int k = j; k < features.length; ++k)
-                    if (features[j - 1][i] == features[k][i]) {
-                        butDifferent = false;
-                        break;
-                    }
-
-            if (sameSame == butDifferent) return false;
-        }
-        return true;
+        return rule.test(cards);
     }
 
     @Override
     public List<int[]> findSets(List<Integer> deck, int count) {
+        if (cache != null && deck.size() <= config.tableSize) {
+            // only a search for all the sets fills the cache (a search for a few of them usually stops early)
+            List<int[]> sets = cache.sets(deck, count == Integer.MAX_VALUE ? cards -> find(cards, Integer.MAX_VALUE) : null);
+            if (sets != null) return sets.size() <= count ? sets : sets.subList(0, Math.max(0, count));
+        }
+        return find(deck, count);
+    }
+
+    private List<int[]> find(List<Integer> deck, int count) {
         LinkedList<int[]> sets = new LinkedList<>();
         int n = deck.size();
-        int r = config.featureSize;
+        int r = rule.size();
+        int w = rule.words();
+        int[] cards = new int[n];
+        for (int i = 0; i < n; ++i)
+            cards[i] = deck.get(i);
         int[] combination = new int[r];
 
+        // values[(k + 1) * w ...] holds the ORed encodings of the first k + 1 cards of the combination (see
+        // CompiledSetRule::features), so only the cards that changed since the previous combination are added
+        long[] values = new long[(r + 1) * w];
+        int changed = 0;
+
         for (int i = 0; i < r; ++i)
             combination[i] = i;
 
-        while (combination[r - 1] < deck.size()) {
-            int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
-            if (testSet(cards)) {
-                sets.add(cards);
+        while (combination[r - 1] < n) {
+            for (int k = changed; k < r; ++k)
+                for (int j = 0; j < w; ++j)
+                    values[(k + 1) * w + j] = values[k * w + j] | rule.features(cards[combination[k]], j);
+            if (rule.test(values, r * w)) {
+                int[] set = new int[r];
+                for (int k = 0; k < r; ++k)
+                    set[k] = cards[combination[k]];
+                Arrays.sort(set);
+                sets.add(set);
                 if (sets.size() >= count) return sets;
             }
 
@@ -86,10 +141,16 @@ public class UtilImpl implements Util {
             while (t != 0 && combination[t] == n - r + t) --t;
             combination[t]++;
             for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            changed = t;
         }
         return sets;
     }
 
+    @Override
+    public String toString() {
+        return "set rule: " + rule + (cache != null ? ", " + cache : "");
+    }
+
     public void spin() {
         if (config.randomSpinMax <= 0) return;
         long cycles = ThreadLocalRandom.current().nextLong(config.randomSpinMin, config.randomSpinMax);
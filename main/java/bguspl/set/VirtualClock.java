@@ -0,0 +1,275 @@
+package bguspl.set;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A discrete event clock for time-compressed simulations: virtual time stands still while any of the game's threads
+ * can run, and once all of them are blocked in the clock (sleeping, waiting or parked) it skips straight to the
+ * earliest timeout and wakes the threads waiting for it. So sleeps, freezes and turn timeouts take no real time, and
+ * the timed events still happen in the order of their times.
+ *
+ * The game's threads must be registered (see Clock::register), and they must block and wake each other only through
+ * the clock - a thread blocked elsewhere (e.g. joining a future) counts as running, which only delays the clock, but a
+ * thread woken behind the clock's back (e.g. by a plain notifyAll) is not seen and may lose its wake-up.
+ */
+public class VirtualClock implements Clock {
+
+    /**
+     * A thread blocked in the clock.
+     */
+    private static final class Waiter {
+
+        /**
+         * The monitor waited on (null for a parked thread).
+         */
+        final Object monitor;
+
+        /**
+         * The virtual time to wake the thread at (Long.MAX_VALUE if none).
+         */
+        final long deadline;
+
+        /**
+         * The order the thread blocked in (breaks ties between equal deadlines).
+         */
+        final long order;
+
+        /**
+         * True once the thread was woken (guarded by the clock's lock).
+         */
+        boolean woken;
+
+        Waiter(Object monitor, long deadline, long order) {
+            this.monitor = monitor;
+            this.deadline = deadline;
+            this.order = order;
+        }
+    }
+
+    private final Object lock = new Object();
+    private volatile long now;
+
+    /**
+     * The registered threads, and the ones among them not blocked in the clock.
+     */
+    private int registered;
+    private int running;
+
+    private long order;
+    private final PriorityQueue<Waiter> timed = new PriorityQueue<>(
+            Comparator.comparingLong((Waiter waiter) -> waiter.deadline).thenComparingLong(waiter -> waiter.order));
+    private final Map<Object, List<Waiter>> waiting = new IdentityHashMap<>();
+    private final Map<Thread, Waiter> parked = new HashMap<>();
+    private final Set<Thread> permits = new HashSet<>();
+
+    /**
+     * The thread that advances the time (started when needed and ended when no thread is registered).
+     */
+    private Thread driver;
+    private long advances;
+
+    /**
+     * Starts the virtual time at the current system time.
+     */
+    public VirtualClock() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * @param startMillis - the initial virtual time.
+     */
+    public VirtualClock(long startMillis) {
+        now = startMillis;
+    }
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+        if (millis <= 0) return;
+        Object monitor = new Object();
+        synchronized (monitor) {
+            await(monitor, millis);
+        }
+    }
+
+    @Override
+    public void await(Object monitor, long timeoutMillis) throws InterruptedException {
+        Waiter waiter;
+        synchronized (lock) {
+            waiter = new Waiter(monitor, timeoutMillis > 0 ? now + timeoutMillis : Long.MAX_VALUE, order++);
+            waiting.computeIfAbsent(monitor, key -> new ArrayList<>()).add(waiter);
+            if (timeoutMillis > 0) timed.add(waiter);
+            block();
+        }
+        try {
+            // the waker marks the waiter before notifying, and must hold the monitor to notify - so no wake-up is lost
+            while (!isWoken(waiter)) monitor.wait();
+        } catch (InterruptedException e) {
+            synchronized (lock) {
+                if (!waiter.woken) {
+                    wake(waiter);
+                    removeWaiting(waiter);
+                }
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void signalAll(Object monitor) {
+        synchronized (lock) {
+            List<Waiter> waiters = waiting.remove(monitor);
+            if (waiters != null)
+                for (Waiter waiter : waiters)
+                    wake(waiter);
+        }
+        monitor.notifyAll();
+    }
+
+    @Override
+    public void park(Object blocker) {
+        Thread thread = Thread.currentThread();
+        Waiter waiter;
+        synchronized (lock) {
+            if (permits.remove(thread)) return;
+            waiter = new Waiter(null, Long.MAX_VALUE, order++);
+            parked.put(thread, waiter);
+            block();
+        }
+        while (true) {
+            LockSupport.park(blocker);
+            synchronized (lock) {
+                if (waiter.woken) return;
+                if (thread.isInterrupted()) {
+                    parked.remove(thread);
+                    wake(waiter);
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void unpark(Thread thread) {
+        if (thread == null) return;
+        synchronized (lock) {
+            Waiter waiter = parked.remove(thread);
+            if (waiter != null) wake(waiter);
+            else permits.add(thread);
+        }
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void register() {
+        synchronized (lock) {
+            registered++;
+            running++;
+        }
+    }
+
+    @Override
+    public void unregister() {
+        synchronized (lock) {
+            registered--;
+            permits.remove(Thread.currentThread());
+            block();
+        }
+    }
+
+    private boolean isWoken(Waiter waiter) {
+        synchronized (lock) {
+            return waiter.woken;
+        }
+    }
+
+    /**
+     * Called (under the lock) when a registered thread blocks or ends.
+     */
+    private void block() {
+        if (--running > 0) return;
+        if (driver == null && registered > 0) {
+            driver = new Thread(this::drive, "virtual-clock");
+            driver.setDaemon(true);
+            driver.start();
+        }
+        lock.notifyAll();
+    }
+
+    /**
+     * Called (under the lock) to wake a blocked thread.
+     */
+    private void wake(Waiter waiter) {
+        if (waiter.woken) return;
+        waiter.woken = true;
+        running++;
+    }
+
+    /**
+     * Called (under the lock) to forget a woken thread that waited on a monitor.
+     */
+    private void removeWaiting(Waiter waiter) {
+        List<Waiter> waiters = waiting.get(waiter.monitor);
+        if (waiters != null && waiters.remove(waiter) && waiters.isEmpty()) waiting.remove(waiter.monitor);
+    }
+
+    /**
+     * The main loop of the driver thread: whenever all the registered threads are blocked, advances the time to the
+     * earliest timeout and wakes the threads waiting for it.
+     */
+    private void drive() {
+        while (true) {
+            List<Waiter> due = new ArrayList<>();
+            synchronized (lock) {
+                while (true) {
+                    while (!timed.isEmpty() && timed.peek().woken) timed.poll();
+                    if (registered == 0) {
+                        driver = null;
+                        return;
+                    }
+                    if (running == 0 && !timed.isEmpty()) break;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        driver = null;
+                        return;
+                    }
+                }
+                now = Math.max(now, timed.peek().deadline);
+                advances++;
+                while (!timed.isEmpty() && timed.peek().deadline <= now) {
+                    Waiter waiter = timed.poll();
+                    if (waiter.woken) continue;
+                    wake(waiter);
+                    removeWaiting(waiter);
+                    due.add(waiter);
+                }
+            }
+            // notified outside the clock's lock (the lock is always taken last, inside the game's monitors)
+            for (Waiter waiter : due)
+                synchronized (waiter.monitor) {
+                    waiter.monitor.notifyAll();
+                }
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return "virtual time=" + now + " advances=" + advances + " registered=" + registered + " running=" + running;
+        }
+    }
+}
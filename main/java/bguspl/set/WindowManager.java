@@ -8,6 +8,15 @@ import java.awt.event.WindowListener;
  */
 public class WindowManager implements WindowListener {
 
+    /**
+     * The keyboard input handler of the window (closed once the game shut down).
+     */
+    private final InputManager inputManager;
+
+    public WindowManager(InputManager inputManager) {
+        this.inputManager = inputManager;
+    }
+
     @Override
     public void windowOpened(WindowEvent e) {
         // Auto-generated method stub
@@ -18,6 +27,8 @@ public class WindowManager implements WindowListener {
         try {
             Main.xButtonPressed();
         } catch (InterruptedException ignored) {}
+        // the window is not disposed on this path (the JVM exits), so the input trace is completed here
+        inputManager.close();
     }
 
     @Override
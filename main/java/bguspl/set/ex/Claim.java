@@ -0,0 +1,86 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * A set claim: the slots a player placed its tokens on and the cards in them, as of the table version the claim was
+ * made against (see TableSnapshot::version).
+ *
+ * Claims are immutable - they are published by the claiming thread (see Table::placeToken) and checked by the dealer
+ * without taking any lock.
+ */
+public final class Claim {
+
+    /**
+     * The claiming player.
+     */
+    public final int player;
+
+    /**
+     * The time the claim was made (as returned by System.nanoTime()).
+     */
+    public final long time;
+
+    /**
+     * The table version the claim was made against.
+     */
+    public final long version;
+
+    /**
+     * The claimed slots, and the card in each one (-1 if the slot was empty).
+     */
+    final int[] slots;
+    final int[] cards;
+
+    Claim(int player, long time, long version, int[] slots, int[] cards) {
+        this.player = player;
+        this.time = time;
+        this.version = version;
+        this.slots = slots;
+        this.cards = cards;
+    }
+
+    /**
+     * @return - the claimed slots.
+     */
+    public int[] slots() {
+        return slots.clone();
+    }
+
+    /**
+     * @return - the claimed cards (-1 for an empty slot).
+     */
+    public int[] cards() {
+        return cards.clone();
+    }
+
+    /**
+     * @return - true iff there was a card in every claimed slot.
+     */
+    public boolean complete() {
+        for (int card : cards)
+            if (card < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Checks whether the claimed cards are still where they were claimed.
+     *
+     * @param table - the current table.
+     * @return      - true iff every claimed card is still in its slot. O(1) when the table did not change since the
+     *                claim was made (the usual case), otherwise O(claimed slots).
+     */
+    public boolean isCurrent(TableSnapshot table) {
+        if (table.version == version) return true;
+        for (int i = 0; i < slots.length; i++)
+            if (table.card(slots[i]) != cards[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "player " + player + " slots " + Arrays.toString(slots) + " cards " + Arrays.toString(cards) + " (version " + version + ")";
+    }
+}
@@ -1,8 +1,11 @@
 package bguspl.set.ex;
 
 import bguspl.set.Env;
+import bguspl.set.ShutdownCoordinator;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -24,8 +27,12 @@ public class Dealer implements Runnable {
      */
     private final Table table;
     private final Player[] players;
-    private final Thread[] threads;
+    private final Future<?>[] threads;
 
+    /**
+     * Stops the threads of the players (and of their AI) together when the game ends.
+     */
+    final ShutdownCoordinator shutdown;
 
     /**
      * The list of card ids that are left in the dealer's deck.
@@ -37,6 +44,11 @@ public class Dealer implements Runnable {
      */
     private volatile boolean terminate;
 
+    /**
+     * True iff the game ended because no sets were left (and not due to an external event).
+     */
+    private volatile boolean noSetsLeft;
+
     private long[] playersFreezeTime;
 
     /**
@@ -44,14 +56,64 @@ public class Dealer implements Runnable {
      */
     private long reshuffleTime = Long.MAX_VALUE;
 
+    /**
+     * The journal the game is recorded to (null if the game is not recorded).
+     */
+    private final Journal journal;
+
+    /**
+     * True iff the game is a replay of a journal (reshuffles are then requested by the replay and not by the timer).
+     */
+    private final boolean replaying;
+
+    /**
+     * True iff a reshuffle was requested by the replay.
+     */
+    private volatile boolean reshuffleRequested;
+
+    /**
+     * The number of dealer loop iterations completed so far (used to wait for the dealer to become idle).
+     */
+    private long iterations;
+    private final Object idleLock = new Object();
+
+    /**
+     * The time the game started (on the game's clock).
+     */
+    private long gameStart;
+
+    /**
+     * The table version the live statistics last saw (see updateStats).
+     */
+    private long statsVersion = -1;
+
+    /**
+     * True iff the dealer thread has finished.
+     */
+    private volatile boolean finished;
+
     public Dealer(Env env, Table table, Player[] players) {
         this.env = env;
         this.table = table;
         this.players = players;
         deck = IntStream.range(0, env.config.deckSize).boxed().collect(Collectors.toList());
-        this.threads = new Thread[players.length];
+        this.threads = new Future<?>[players.length];
+        this.shutdown = new ShutdownCoordinator(env.logger, env.config.shutdownTimeoutMillis);
         this.terminate = false;
         this.playersFreezeTime = new long[players.length];
+        this.replaying = !env.config.replayFile.isEmpty();
+        this.journal = createJournal(env, table.getSeed());
+        table.setJournal(journal);
+    }
+
+    private static Journal createJournal(Env env, long seed) {
+        if (env.config.journalFile.isEmpty()) return null;
+        try {
+            return new Journal(env.config.journalFile, seed, env.clock);
+        } catch (IOException e) {
+            env.logger.severe("cannot create game journal " + env.config.journalFile + ": " + e.getMessage());
+            return null;
+        }
     }
 
     /**
@@ -60,21 +122,32 @@ public class Dealer implements Runnable {
     @Override
     public void run() {
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
+        env.clock.register();
+        gameStart = env.clock.millis();
         // create players Threads
         for(int i=0; i < this.players.length; i++){
-            this.threads[i] = new Thread(this.players[i], ""+i);
-            this.threads[i].start();
+            this.threads[i] = shutdown.submit(env.executor, env.clock.registered(this.players[i]), "player-" + i, this.players[i]::terminate);
         }
 
         while (!shouldFinish()) {
             placeCardsOnTable();
             timerLoop();
-            updateTimerDisplay(false);
-            removeAllCardsFromTable();
+            reshuffleRequested = false;
+            removeAllCardsFromTable(!terminate);
         }
 
         announceWinners();
+        env.logger.log(Level.INFO, "set solver: " + table.getSolver() + ", " + env.util);
+        env.logger.log(Level.INFO, "game time: " + (env.clock.millis() - gameStart) + " ms (" + env.clock + ")");
+        env.logger.log(Level.INFO, env.stats.report(env.clock.millis()));
+        if (env.locks.isEnabled()) env.logger.log(Level.INFO, env.locks.report());
         terminatePlayers();
+        closeJournal();
+        finished = true;
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+        env.clock.unregister();
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
@@ -82,12 +155,16 @@ public class Dealer implements Runnable {
      * The inner loop of the dealer thread that runs as long as the countdown did not time out.
      */
     private void timerLoop() {
-        while (!terminate && (System.currentTimeMillis() < reshuffleTime  || env.config.turnTimeoutMillis == 0)) {
-            sleepUntilWokenOrTimeout(); // TO ASK: does it efficient to make thread wait for 1 sec each time?
-            updateTimerDisplay(false);
+        while (!terminate && !reshuffleRequested && (replaying || env.clock.millis() < reshuffleTime  || env.config.turnTimeoutMillis == 0)) {
+            sleepUntilWokenOrTimeout();
+            long iterationStart = System.nanoTime();
             removeCardsFromTable();
             placeCardsOnTable();
-
+            env.metrics.dealerIteration.recordSince(iterationStart);
+            synchronized (idleLock) {
+                iterations++;
+                idleLock.notifyAll();
+            }
         }
     }
 
@@ -95,7 +172,79 @@ public class Dealer implements Runnable {
      * Called when the game should be terminated due to an external event.
      */
     public void terminate() {
+        if (!terminate && !noSetsLeft && journal != null) journal.terminate(); // a game with no sets left ends by itself
         terminate = true;
+        wakeDealer();
+    }
+
+    /**
+     * Called by the replay to reshuffle the table where the recorded game timed out.
+     */
+    public void reshuffle() {
+        reshuffleRequested = true;
+        wakeDealer();
+    }
+
+    /**
+     * Waits until the dealer has handled all pending claims and completed a full loop iteration since the call.
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            long target = iterations + 2; // the current iteration may have started before the call
+            while (!finished && (iterations < target || !table.getQueue().isEmpty())) {
+                wakeDealer();
+                idleLock.wait(10);
+            }
+        }
+    }
+
+    /**
+     * Wakes the dealer thread if it sleeps until woken or timeout.
+     */
+    private void wakeDealer() {
+        long waitStart = env.locks.enter();
+        synchronized (this.table.dealerLock) {
+            long holdStart = env.locks.entered("dealerLock", waitStart);
+            try {
+                env.clock.signalAll(this.table.dealerLock);
+            } finally {
+                env.locks.exit("dealerLock", holdStart);
+            }
+        }
+    }
+
+    /**
+     * @return - true iff the dealer thread has finished.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private void closeJournal() {
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            env.logger.severe("cannot close game journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records the result of a finished game in the leaderboard (a game terminated by an external event has no result,
+     * and a replay was recorded already). The leaderboard is open only meanwhile, so games may share it.
+     */
+    private void recordResult(int[] winners) {
+        if (env.config.leaderboardDirectory.isEmpty() || replaying || !noSetsLeft) return;
+        int[] scores = new int[players.length];
+        boolean[] won = new boolean[players.length];
+        for (int i = 0; i < players.length; i++) scores[i] = players[i].score();
+        for (int winner : winners) won[winner] = true;
+        try {
+            Leaderboard.record(env.config.leaderboardDirectory, System.currentTimeMillis(), env.clock.millis() - gameStart,
+                    env.config.playerNames, scores, won);
+        } catch (IOException e) {
+            env.logger.severe("cannot record the game in the leaderboard: " + e.getMessage());
+        }
     }
 
     /**
@@ -104,71 +253,106 @@ public class Dealer implements Runnable {
      * @return true iff the game should be finished.
      */
     private boolean shouldFinish() {
-        return terminate || env.util.findSets(deck, 1).size() == 0;
+        return terminate || findSets(deck, 1).size() == 0;
+    }
+
+    /**
+     * Finds sets in the given cards (see Util::findSets), recording the time spent in the metrics.
+     */
+    private List<int[]> findSets(List<Integer> cards, int count) {
+        long start = System.nanoTime();
+        List<int[]> sets = env.util.findSets(cards, count);
+        env.metrics.findSets.recordSince(start);
+        return sets;
+    }
+
+    /**
+     * A claim taken out of the claims queue, with the dealer's findings about it.
+     */
+    private static class Check {
+
+        final Claim claim;
+
+        /**
+         * False iff some of the claimed cards were gone by the time the claim was checked.
+         */
+        final boolean current;
+
+        boolean legal;
+
+        final GameEvents.VerdictEvent event;
+
+        Check(Claim claim, boolean current, GameEvents.VerdictEvent event) {
+            this.claim = claim;
+            this.current = current;
+            this.event = event;
+        }
     }
 
+    /**
+     * The minimal number of claims in a batch for them to be checked in parallel.
+     */
+    private static final int PARALLEL_CLAIMS = 8;
+
     /**
      * Checks cards should be removed from the table and removes them.
+     *
+     * All the queued claims are handled as one batch: the claims are checked (in parallel when there are many of them),
+     * then given verdicts in the order they were made - a legal claim that shares slots with an earlier legal claim is
+     * ruined, since its cards are taken - and finally the cards of all the legal claims are removed in one table update.
      */
     private void removeCardsFromTable() {
         env.logger.log(Level.INFO, Thread.currentThread().getName() + ": Working on removeCardsFromTable " + System.currentTimeMillis()/1000);
-        Queue<Integer> player_order = this.table.getQueue();
-        if(!player_order.isEmpty()){
-            Integer[][] tokenToSlot = this.table.getTokenToSlot();
+        Queue<Claim> claims_queue = this.table.getQueue();
+        if(!claims_queue.isEmpty()){
             Integer[] slot = this.table.getSlot();
-            while(!player_order.isEmpty()){
-                boolean set_ruined = false;
-                int player = player_order.poll(); 
-                env.logger.log(Level.INFO, Thread.currentThread().getName() + ": Player(" + player + ") Entered Queue loop AT " + System.currentTimeMillis());
-               
-                synchronized(this.table.aiLock[player]){
-                    int[] player_choices = new int[env.config.featureSize];
-                    for(int i=0; i < env.config.featureSize; i++){
-                        if(tokenToSlot[player][i] == null){
-                            set_ruined = true;
-                            continue;
-                        }
-                        if(slot[tokenToSlot[player][i]] == null){
-                            this.table.removeToken(player, tokenToSlot[player][i]);
-                            set_ruined = true;
-                        }
-                        else{
-                            player_choices[i] = slot[tokenToSlot[player][i]];
-                        }
-                    }
-                    if(set_ruined){
-                        env.logger.log(Level.INFO, "[" + System.currentTimeMillis() + "]" + Thread.currentThread().getName() + ": Player(" + player + ") NOTIFIED INSIDE DEALER ");
-                        this.table.aiLock[player].notifyAll();
-                        continue;
-                    }
-                    boolean res = env.util.testSet(player_choices);
-                    if(res){
-                        for(int i=0; i < tokenToSlot[player].length; i++){
-                            this.table.removeCard(tokenToSlot[player][i], true);
-                            this.table.removeToken(player, tokenToSlot[player][i]);
-                        }
-                        
-                        synchronized(this.players[player]){
-                            synchronized(this.players[player].action){
-                                this.players[player].setAction("point");
-                            }
-                            this.players[player].notifyAll();
-                        }
-                    }
-                    else{
-                        synchronized(this.players[player]){
-                            synchronized(this.players[player].action){
-                                this.players[player].setAction("penalty");
-                            }
-                            this.players[player].notifyAll();
+            List<Check> checks = takeClaims();
+            if (checks.size() >= PARALLEL_CLAIMS)
+                checks.parallelStream().filter(check -> check.current).forEach(check -> check.legal = env.util.testSet(check.claim.cards));
+            else
+                checks.stream().filter(check -> check.current).forEach(check -> check.legal = env.util.testSet(check.claim.cards));
+            checks.sort(Comparator.comparingLong(check -> check.claim.time));
+
+            boolean[] taken = new boolean[slot.length];
+            List<Check> points = new ArrayList<>();
+            List<Check> penalties = new ArrayList<>();
+            for (Check check : checks) {
+                Claim claim = check.claim;
+                boolean ruined = !check.current;
+                for (int i = 0; i < claim.slots.length && !ruined; i++)
+                    ruined = taken[claim.slots[i]];
+                if (ruined) {
+                    env.metrics.claimRuined(claim.time);
+                    env.stats.ruined(claim.player);
+                    commitVerdict(check.event, claim.player, claim.slots, claim.cards, "ruined", claim.time);
+                    env.logger.log(Level.INFO, "[" + System.currentTimeMillis() + "]" + Thread.currentThread().getName() + ": Player(" + claim.player + ") NOTIFIED INSIDE DEALER ");
+                    long waitStart = env.locks.enter();
+                    synchronized(this.table.aiLock[claim.player]){
+                        long holdStart = env.locks.entered("aiLock", waitStart);
+                        try {
+                            env.clock.signalAll(this.table.aiLock[claim.player]);
+                        } finally {
+                            env.locks.exit("aiLock", holdStart);
                         }
                     }
-                    // env.logger.log(Level.INFO, "["+System.currentTimeMillis()"] " + Thread.currentThread().getName() + ": Before NOTIFY (" + player + ")");
-                    // this.table.aiLock[player].notifyAll();
-                    // env.logger.log(Level.INFO, Thread.currentThread().getName() + ": After NOTIFY (" + player + ")");
-
+                } else if (check.legal) {
+                    for (int claimed : claim.slots) taken[claimed] = true;
+                    points.add(check);
+                } else {
+                    penalties.add(check);
                 }
             }
+
+            // remove the cards of all the legal claims in one table update
+            int[] removed = new int[points.size() * env.config.setSize];
+            int k = 0;
+            for (Check check : points)
+                for (int claimed : check.claim.slots) removed[k++] = claimed;
+            // the tokens on these slots (including those of the claims ruined by the points) are removed with the cards
+            if (removed.length > 0) this.table.removeCards(removed, true);
+
+            for (Check check : points) giveVerdict(check, "point");
+            for (Check check : penalties) giveVerdict(check, "penalty");
             // check if there is another set available
             int cards_on_slot = 0;
             ArrayList<Integer> avlbl_deck = this.table.getAvlblDeck();
@@ -191,26 +375,104 @@ public class Dealer implements Runnable {
                 remaning_cards.add(slot_cards[i]);
             }
             remaning_cards.addAll(avlbl_deck);
-            if(env.util.findSets(remaning_cards, 1).size() == 0){
+            if(findSets(remaning_cards, 1).size() == 0){
                 // end the game
+                noSetsLeft = true;
                 terminate();
             }
         }
     }
         
 
-    private void terminatePlayers(){
-        for(int i=this.players.length-1 ; i>=0; i--){
-            synchronized(this.players[i]){
-                this.players[i].terminate();
-                this.players[i].notifyAll();
+    /**
+     * Takes all the queued claims and checks, without any lock, whether the cards each one was made on are still on
+     * the table (in O(1) when the table version did not change since the claim was made). Only the latest claim of a
+     * player is checked - its earlier claims were withdrawn by the presses that followed them, and are ruined.
+     */
+    private List<Check> takeClaims() {
+        TableSnapshot snapshot = this.table.snapshot();
+        List<Claim> claims = new ArrayList<>();
+        for (Claim claim = this.table.pollClaim(); claim != null; claim = this.table.pollClaim())
+            claims.add(claim);
+        // the claims of a player are queued by one thread at a time, so its latest claim is the last one queued
+        Claim[] latest = new Claim[players.length];
+        for (Claim claim : claims)
+            latest[claim.player] = claim;
+
+        List<Check> checks = new ArrayList<>();
+        for (Claim claim : claims) {
+            int player = claim.player;
+            env.metrics.claimDequeued();
+            GameEvents.VerdictEvent event = new GameEvents.VerdictEvent();
+            event.begin();
+            env.logger.log(Level.INFO, Thread.currentThread().getName() + ": Player(" + player + ") Entered Queue loop AT " + System.currentTimeMillis() + " (table version " + claim.version + ")");
+
+            boolean current = claim == latest[player] && claim.complete() && claim.isCurrent(snapshot);
+            if(!current){
+                // the tokens placed on empty slots are stale (the tokens on removed cards were removed with them, and
+                // a token on a card that replaced one may be a fresh one)
+                for(int i=0; i < claim.slots.length; i++){
+                    if(claim.cards[i] < 0){
+                        this.table.removeToken(player, claim.slots[i]);
+                    }
+                }
             }
+            checks.add(new Check(claim, current, event));
+        }
+        return checks;
+    }
+
+    /**
+     * Sets the action of a claiming player (point or penalty) and wakes the player up.
+     */
+    private void giveVerdict(Check check, String action) {
+        Claim claim = check.claim;
+        Player player = this.players[claim.player];
+        long waitStart = env.locks.enter();
+        synchronized(player){
+            long holdStart = env.locks.entered("player", waitStart);
             try {
-                this.threads[i].join();
-            } catch (InterruptedException ex_ignored) {}
+                long actionWaitStart = env.locks.enter();
+                synchronized(player.action){
+                    long actionHoldStart = env.locks.entered("player.action", actionWaitStart);
+                    try {
+                        player.setAction(action);
+                    } finally {
+                        env.locks.exit("player.action", actionHoldStart);
+                    }
+                }
+            } finally {
+                env.locks.exit("player", holdStart);
+            }
+        }
+        player.wake();
+        env.metrics.verdict(claim.time, action.equals("point"));
+        if (action.equals("point")) env.stats.point(claim.player, env.clock.millis());
+        else env.stats.penalty(claim.player);
+        commitVerdict(check.event, claim.player, claim.slots, claim.cards, action, claim.time);
+    }
+
+    /**
+     * Commits a verdict flight recorder event (if it is enabled).
+     */
+    private static void commitVerdict(GameEvents.VerdictEvent event, int player, int[] slots, int[] cards, String verdict, long claimTime) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = player;
+            event.slots = GameEvents.format(slots);
+            event.cards = GameEvents.format(cards);
+            event.verdict = verdict;
+            event.claimLatency = System.nanoTime() - claimTime;
+            event.commit();
         }
     }
 
+    private void terminatePlayers(){
+        // all the player and AI threads are stopped at once, so a frozen player does not hold up the others
+        // (the ones that did not stop within ShutdownTimeoutSeconds are logged and left behind)
+        shutdown.shutdown();
+    }
+
     /**
      * Check if any cards can be removed from the deck and placed on the table.
      */
@@ -233,7 +495,7 @@ public class Dealer implements Runnable {
                 new_slot.add(slot[i]);
             }
         }
-        while(!terminate && env.config.turnTimeoutMillis <= 0 && env.util.findSets(new_slot, 1).size() == 0){
+        while(!terminate && env.config.turnTimeoutMillis <= 0 && findSets(new_slot, 1).size() == 0){
             for(int i=0; i < cards_added.size(); i++){
                 this.table.addToAvlblDeck(cards_added.get(i));            
             }
@@ -253,16 +515,24 @@ public class Dealer implements Runnable {
             }
         }
         int j = 0;  // @TODO handle the case when the there is no more cards to put and there is no set
+        int[] cards = new int[cards_added.size()];
+        int[] slots = new int[cards_added.size()];
         for(int i=0; i < slot.length; i++){
             if(slot[i] == null  && j < cards_added.size()){
                 timer_reset = true;
-                int card = cards_added.get(j);
+                cards[j] = cards_added.get(j);
+                slots[j] = i;
                 j++;
-                if(card >= 0){
-                    this.table.placeCard(card, i);
-                }
             }
         }
+        if(j > 0){
+            this.table.placeCards(cards, slots);
+            env.stats.dealt(env.clock.millis());
+            if(env.config.hints){
+                this.table.hints();
+            }
+        }
+        updateStats();
 
         if(timer_reset){
             updateTimerDisplay(timer_reset);
@@ -270,35 +540,56 @@ public class Dealer implements Runnable {
     }
 
     /**
-     * Sleep for a fixed amount of time or until the thread is awakened for some purpose.
+     * Tells the live statistics whether the table has a set on it, whenever the cards on the table changed.
+     */
+    private void updateStats() {
+        TableSnapshot snapshot = this.table.snapshot();
+        if (snapshot.version == statsVersion) return;
+        statsVersion = snapshot.version;
+        List<Integer> cards = Arrays.stream(snapshot.cards()).boxed().collect(Collectors.toList());
+        env.stats.tableChanged(env.clock.millis(), !findSets(cards, 1).isEmpty());
+    }
+
+    /**
+     * Sleep until the turn times out or until the thread is awakened for some purpose (e.g. a claim).
      */
     private void sleepUntilWokenOrTimeout() {
+        long waitStart = env.locks.enter();
         synchronized(this.table.dealerLock){
-            try {this.table.dealerLock.wait(System.currentTimeMillis()%1000);} catch (InterruptedException ignored) {}
-        }        
+            long holdStart = env.locks.entered("dealerLock", waitStart);
+            boolean wait;
+            long timeout = 0; // no turn timeout - wait until woken
+            try {
+                // checked under the lock, so a claim queued right before waiting is not missed
+                wait = !terminate && !reshuffleRequested && this.table.getQueue().isEmpty();
+                if(wait && env.config.turnTimeoutMillis > 0 && !replaying){
+                    timeout = reshuffleTime - env.clock.millis();
+                    wait = timeout > 0;
+                }
+            } finally {
+                env.locks.exit("dealerLock", holdStart); // the wait below releases the lock
+            }
+            if(wait){
+                try {env.clock.await(this.table.dealerLock, timeout);} catch (InterruptedException ignored) {}
+            }
+        }
     }
 
     /**
      * Reset and/or update the countdown and the countdown display.
      */
     private void updateTimerDisplay(boolean reset) {
-        if(env.config.turnTimeoutMillis >= 0){
-            if(env.config.turnTimeoutMillis == 0){
-                if(reset){
-                    reshuffleTime = System.currentTimeMillis();
-                }
-                this.env.ui.setCountdown(System.currentTimeMillis() - reshuffleTime, false);
-            }
-            else{
-                if(reset){
-                    reshuffleTime = System.currentTimeMillis() + this.env.config.turnTimeoutMillis;
-                }
-                boolean warning = false;
-                if(reshuffleTime-System.currentTimeMillis() <= env.config.turnTimeoutWarningMillis){
-                    warning = true;
-                }
-                this.env.ui.setCountdown(reshuffleTime-System.currentTimeMillis(), warning);
-            }
+        if(!reset || env.config.turnTimeoutMillis < 0){
+            return;
+        }
+        // only the deadline (or the start time of the elapsed time) is published - the display renders the time itself
+        if(env.config.turnTimeoutMillis == 0){
+            reshuffleTime = env.clock.millis();
+            this.env.ui.setElapsedSince(reshuffleTime);
+        }
+        else{
+            reshuffleTime = env.clock.millis() + this.env.config.turnTimeoutMillis;
+            this.env.ui.setDeadline(reshuffleTime, env.config.turnTimeoutWarningMillis);
         }
     }
 
@@ -306,14 +597,23 @@ public class Dealer implements Runnable {
      * Returns all the cards from the table to the deck.
      */
     public void removeAllCardsFromTable() {
-        Integer[] slot = this.table.getSlot(); 
-        for(int i=0; i < slot.length; i++){
-            if(slot[i] != null){
-                table.removeCard(i, false);
-            }
-        }
+        removeAllCardsFromTable(false);
+    }
 
-        this.table.removeTokens();
+    /**
+     * Returns all the cards from the table to the deck.
+     *
+     * @param reshuffle - true iff the cards are returned due to turn timeout (journaled if the game is recorded).
+     */
+    private void removeAllCardsFromTable(boolean reshuffle) {
+        GameEvents.ReshuffleEvent event = new GameEvents.ReshuffleEvent();
+        event.begin();
+        int removed = this.table.clearTable(reshuffle);
+        event.end();
+        if (event.shouldCommit()) {
+            event.cards = removed;
+            event.commit();
+        }
     }
 
     /**
@@ -337,5 +637,6 @@ public class Dealer implements Runnable {
             real_winners[i] = winners.get(i);
         }
         this.env.ui.announceWinner(real_winners);      
+        recordResult(real_winners);
     }
 }  // @TODO terminate aI thread, also terminate gracefully when clicking "X"
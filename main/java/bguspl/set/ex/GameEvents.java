@@ -0,0 +1,116 @@
+package bguspl.set.ex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.Arrays;
+
+/**
+ * The game's Java Flight Recorder events. Events are only filled in and committed when they are enabled in a running
+ * recording, so they cost (almost) nothing otherwise.
+ */
+public final class GameEvents {
+
+    private GameEvents() {}
+
+    /**
+     * Formats slots or cards for an event field (JFR events do not support array fields).
+     */
+    static String format(Integer[] values) {
+        return Arrays.toString(values);
+    }
+
+    static String format(int[] values) {
+        return Arrays.toString(values);
+    }
+
+    @Name("bguspl.set.Claim")
+    @Label("Claim")
+    @Category("Set Game")
+    @Description("A player placed the token completing a set claim")
+    public static final class ClaimEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slots")
+        public String slots;
+
+        @Label("Cards")
+        public String cards;
+
+        @Label("Table Version")
+        @Description("The version of the cards on the table the claim was made against")
+        public long tableVersion;
+    }
+
+    @Name("bguspl.set.Verdict")
+    @Label("Verdict")
+    @Category("Set Game")
+    @Description("The dealer checked a set claim (the event duration is the time the check took)")
+    public static final class VerdictEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Slots")
+        public String slots;
+
+        @Label("Cards")
+        public String cards;
+
+        @Label("Verdict")
+        @Description("point, penalty or ruined (the claimed cards left the table before the check)")
+        public String verdict;
+
+        @Label("Claim Latency")
+        @Description("The time from the claim until the verdict")
+        @Timespan(Timespan.NANOSECONDS)
+        public long claimLatency;
+    }
+
+    @Name("bguspl.set.Freeze")
+    @Label("Freeze")
+    @Category("Set Game")
+    @Description("A player was frozen after a point or a penalty")
+    public static final class FreezeEvent extends Event {
+
+        @Label("Player")
+        public int player;
+
+        @Label("Requested Freeze")
+        @Timespan(Timespan.MILLISECONDS)
+        public long freezeMillis;
+    }
+
+    @Name("bguspl.set.CardMoved")
+    @Label("Card Moved")
+    @Category("Set Game")
+    @Description("A card was placed on or removed from the table")
+    public static final class CardEvent extends Event {
+
+        @Label("Action")
+        @Description("place or remove")
+        public String action;
+
+        @Label("Card")
+        public int card;
+
+        @Label("Slot")
+        public int slot;
+    }
+
+    @Name("bguspl.set.Reshuffle")
+    @Label("Reshuffle")
+    @Category("Set Game")
+    @Description("The dealer returned all the cards on the table to the deck")
+    public static final class ReshuffleEvent extends Event {
+
+        @Label("Cards Returned")
+        public int cards;
+    }
+}
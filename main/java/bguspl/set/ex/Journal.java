@@ -0,0 +1,246 @@
+package bguspl.set.ex;
+
+import bguspl.set.Clock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records the events of a game (the seed, key presses and dealer events) to a compact binary file,
+ * so the game can later be replayed. The entries are timed by the game clock, and handed to a writer thread through a
+ * queue, so recording one never holds up a game thread on the file.
+ *
+ * File format: magic (int), seed (long), followed by entries of: type (byte), time since start (long),
+ * player (byte), slot (byte), card (short: the card in the slot for a key press, -1 for the other entries).
+ */
+public class Journal implements Closeable {
+
+    /**
+     * The journal file magic number ("SETJ").
+     */
+    private static final int MAGIC = 0x5345544A;
+
+    /**
+     * The maximum number of milliseconds (of real time) recorded entries may stay buffered (so a crashed game loses
+     * little).
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 100;
+
+    /**
+     * Entry types.
+     */
+    public static final byte KEY_PRESS = 'P';
+    public static final byte CANCEL_SELECTION = 'C';
+    public static final byte RESHUFFLE = 'R';
+    public static final byte TERMINATE = 'E';
+
+    /**
+     * A single recorded event.
+     */
+    public static class Entry {
+
+        public final byte type;
+        public final long time;
+        public final int player;
+        public final int slot;
+        public final int card;
+
+        public Entry(byte type, long time, int player, int slot, int card) {
+            this.type = type;
+            this.time = time;
+            this.player = player;
+            this.slot = slot;
+            this.card = card;
+        }
+    }
+
+    /**
+     * A journal loaded from a file.
+     */
+    public static class Recording {
+
+        public final long seed;
+        public final List<Entry> entries;
+
+        private Recording(long seed, List<Entry> entries) {
+            this.seed = seed;
+            this.entries = Collections.unmodifiableList(entries);
+        }
+    }
+
+    /**
+     * The entry that tells the writer to close the file.
+     */
+    private static final Entry CLOSE = new Entry((byte) 0, 0, 0, 0, -1);
+
+    private final DataOutputStream out;
+    private final Clock clock;
+
+    /**
+     * The time the recording started (entry times are relative to it).
+     */
+    private final long startTime;
+
+    /**
+     * The entries not written yet, in the order they were recorded.
+     */
+    private final LinkedBlockingQueue<Entry> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    /**
+     * Creates a journal file, writes its header and starts its writer thread.
+     *
+     * @param filename - the journal file name.
+     * @param seed     - the seed of the recorded game.
+     * @param clock    - the game clock (the entries are timed by it).
+     * @throws IOException - if the file cannot be created.
+     */
+    public Journal(String filename, long seed, Clock clock) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(filename))));
+        out.writeInt(MAGIC);
+        out.writeLong(seed);
+        this.clock = clock;
+        startTime = clock.millis();
+        writer = new Thread(this::write, "journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a key press that was accepted by a player.
+     *
+     * @param player - the player that pressed the key.
+     * @param slot   - the slot corresponding to the key pressed.
+     * @param card   - the card in the slot when the key was pressed.
+     */
+    public void keyPressed(int player, int slot, int card) {
+        write(KEY_PRESS, player, slot, card);
+    }
+
+    /**
+     * Records a cancellation of all of a player's tokens.
+     */
+    public void selectionCancelled(int player) {
+        write(CANCEL_SELECTION, player, 0, -1);
+    }
+
+    /**
+     * Records a reshuffle of the table due to turn timeout.
+     */
+    public void reshuffle() {
+        write(RESHUFFLE, 0, 0, -1);
+    }
+
+    /**
+     * Records a termination of the game due to an external event.
+     */
+    public void terminate() {
+        write(TERMINATE, 0, 0, -1);
+    }
+
+    private void write(byte type, int player, int slot, int card) {
+        if (closed || failure != null) return; // the journal must never break the game
+        pending.offer(new Entry(type, clock.millis() - startTime, player, slot, card));
+    }
+
+    /**
+     * The main loop of the writer thread: writes the pending entries, and flushes them FLUSH_INTERVAL_MILLIS after the
+     * first one written since the last flush.
+     */
+    private void write() {
+        boolean unflushed = false;
+        long flushTime = 0;
+        try {
+            while (true) {
+                Entry entry = unflushed ? pending.poll(Math.max(0, flushTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                        : pending.take();
+                if (entry == CLOSE) break;
+                if (entry != null) {
+                    out.writeByte(entry.type);
+                    out.writeLong(entry.time);
+                    out.writeByte(entry.player);
+                    out.writeByte(entry.slot);
+                    out.writeShort(entry.card);
+                    if (!unflushed) flushTime = System.currentTimeMillis() + FLUSH_INTERVAL_MILLIS;
+                    unflushed = true;
+                }
+                if (unflushed && System.currentTimeMillis() >= flushTime) {
+                    out.flush();
+                    unflushed = false;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException ignored) {
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    /**
+     * Writes the pending entries and closes the file (the entries recorded later are ignored).
+     *
+     * @throws IOException - if the journal could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            pending.offer(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Loads a journal file.
+     *
+     * @param filename - the journal file name.
+     * @return - the recording held in the file.
+     * @throws IOException - if the file cannot be read or is not a journal file.
+     */
+    public static Recording load(String filename) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filename))))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(filename + " is not a game journal");
+            long seed = in.readLong();
+            List<Entry> entries = new ArrayList<>();
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    entries.add(new Entry(type, in.readLong(), in.readUnsignedByte(), in.readUnsignedByte(), in.readShort()));
+                } catch (EOFException e) {
+                    break; // a truncated last entry (e.g. the game crashed while writing it)
+                }
+            }
+            return new Recording(seed, entries);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package bguspl.set.ex;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of the key presses (slots) of a single player: any number of threads (the keyboard's event thread,
+ * the network thread, the AI) offer presses, and only the player thread takes them.
+ *
+ * The queue is a lock-free ring of primitive slots - offering never blocks and never allocates; when the queue is
+ * full the press is refused. Each cell has a sequence number telling whether it is free for the producer of a given
+ * position or holds the press of a given position for the consumer.
+ */
+final class KeyPressQueue {
+
+    private final int capacity;
+    private final int[] presses;
+    private final AtomicLongArray sequences;
+
+    /**
+     * The position of the next press to offer (shared by the producers).
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The position of the next press to take (used by the consumer only).
+     */
+    private long head;
+
+    /**
+     * @param capacity - the maximum number of pending presses.
+     */
+    KeyPressQueue(int capacity) {
+        this.capacity = capacity;
+        this.presses = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * Queues a press (from any thread).
+     *
+     * @param slot - the slot pressed.
+     * @return     - true iff the press was queued (false if the queue is full).
+     */
+    boolean offer(int slot) {
+        long position;
+        int cell;
+        while (true) {
+            position = tail.get();
+            cell = (int) (position % capacity);
+            long free = sequences.get(cell) - position;
+            if (free == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (free < 0) {
+                return false; // the cell still holds the press of the previous lap
+            }
+        }
+        presses[cell] = slot;
+        sequences.set(cell, position + 1); // publishes the press to the consumer
+        return true;
+    }
+
+    /**
+     * Takes the next press (from the consumer thread only).
+     *
+     * @return - the slot pressed, or -1 if the queue is empty.
+     */
+    int poll() {
+        int cell = (int) (head % capacity);
+        if (sequences.get(cell) != head + 1) return -1;
+        int slot = presses[cell];
+        sequences.set(cell, head + capacity); // frees the cell for the next lap
+        head++;
+        return slot;
+    }
+
+    /**
+     * @return - true iff there are no presses to take (from the consumer thread only).
+     */
+    boolean isEmpty() {
+        return sequences.get((int) (head % capacity)) != head + 1;
+    }
+}
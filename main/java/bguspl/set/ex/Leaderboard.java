@@ -0,0 +1,604 @@
+package bguspl.set.ex;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps a persistent leaderboard of finished games in a directory of two files:
+ * - results.log: an append-only log of the games' results - the store of record. A game's record is forced to disk
+ *   before record returns, so a recorded game is never lost. Each player's entry in a record links to the player's
+ *   previous record, so a player's history is read without scanning the log.
+ * - players.idx: a memory-mapped hash index of the players by name, holding each player's totals and the offset of
+ *   the player's last record, so the top players are found by scanning the players and not the games.
+ *
+ * The index is derived from the log: when it is missing, damaged or was not closed cleanly (e.g. the game crashed),
+ * it is rebuilt from the log in one sequential scan, and a torn record at the end of the log (a crash while
+ * appending it) is truncated.
+ *
+ * Log format: magic (int), followed by records of: payload length (int), CRC-32 of the payload (int), and the
+ * payload: time (long), duration (long), player count (unsigned short), and for each player: name (UTF), score (int),
+ * winner (byte), offset of the player's previous record (long, -1 if none).
+ *
+ * A game opens the leaderboard only to record its result (see record(String, ...)), so any number of games - in one
+ * process or in several - may share a leaderboard directory.
+ *
+ * Index format: magic (int), state (int), capacity (int), player count (int), log length (long), followed by
+ * capacity slots (an open addressing hash table) of: name length (short, 0 for an empty slot), name (UTF-8, up to
+ * 62 bytes), games (long), wins (long), total score (long), offset of the last record (long).
+ */
+public class Leaderboard implements Closeable {
+
+    /**
+     * The file magic numbers ("SETL" and "SETI").
+     */
+    private static final int LOG_MAGIC = 0x5345544C;
+    private static final int INDEX_MAGIC = 0x53455449;
+
+    /**
+     * The states of the index: closed cleanly, or in use (so it must be rebuilt if found so when opened).
+     */
+    private static final int CLEAN = 1;
+    private static final int IN_USE = 2;
+
+    /**
+     * Index layout.
+     */
+    private static final int HEADER_SIZE = 32;
+    private static final int STATE = 4;
+    private static final int CAPACITY = 8;
+    private static final int COUNT = 12;
+    private static final int LOG_LENGTH = 16;
+    private static final int SLOT_SIZE = 96;
+    private static final int NAME = 2;
+    private static final int GAMES = 64;
+    private static final int WINS = 72;
+    private static final int SCORE = 80;
+    private static final int LAST = 88;
+
+    /**
+     * The longest name kept (in UTF-8 bytes) - longer names are cut short.
+     */
+    private static final int MAX_NAME_BYTES = SLOT_SIZE - 32 - NAME;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int LOG_HEADER_SIZE = 4;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int MAX_PLAYERS = 0xFFFF;
+
+    /**
+     * A monitor per leaderboard directory, held by the games of this process while they record a result (the file lock
+     * only keeps other processes out - a process cannot lock a file it already locked).
+     */
+    private static final ConcurrentHashMap<Path, Object> recording = new ConcurrentHashMap<>();
+
+    /**
+     * A player's totals.
+     */
+    public static class Standing {
+
+        public final String name;
+        public final long games;
+        public final long wins;
+        public final long totalScore;
+
+        private Standing(String name, long games, long wins, long totalScore) {
+            this.name = name;
+            this.games = games;
+            this.wins = wins;
+            this.totalScore = totalScore;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: games=%d wins=%d score=%d", name, games, wins, totalScore);
+        }
+    }
+
+    /**
+     * A player's result in a single game.
+     */
+    public static class Result {
+
+        public final long time;
+        public final long durationMillis;
+        public final int score;
+        public final boolean winner;
+        public final int rank;
+        public final int players;
+
+        private Result(long time, long durationMillis, int score, boolean winner, int rank, int players) {
+            this.time = time;
+            this.durationMillis = durationMillis;
+            this.score = score;
+            this.winner = winner;
+            this.rank = rank;
+            this.players = players;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%tF %<tT: score=%d rank=%d/%d%s (%d s)", new Date(time), score, rank, players,
+                    winner ? " winner" : "", durationMillis / 1000);
+        }
+    }
+
+    /**
+     * A game's record in the log.
+     */
+    private static class Record {
+
+        final long time;
+        final long durationMillis;
+        final String[] names;
+        final int[] scores;
+        final boolean[] winners;
+        final long[] previous;
+
+        Record(long time, long durationMillis, String[] names, int[] scores, boolean[] winners, long[] previous) {
+            this.time = time;
+            this.durationMillis = durationMillis;
+            this.names = names;
+            this.scores = scores;
+            this.winners = winners;
+            this.previous = previous;
+        }
+    }
+
+    private final String directory;
+    private final FileChannel log;
+    private final FileLock lock;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+    private long logLength;
+    private boolean closed;
+
+    /**
+     * Opens the leaderboard in a directory (creating it if needed), rebuilding the index if needed.
+     *
+     * @param directory - the leaderboard directory.
+     * @throws IOException - if the leaderboard cannot be opened, or is in use by another game.
+     */
+    public Leaderboard(String directory) throws IOException {
+        this(directory, false);
+    }
+
+    /**
+     * @param wait - true to wait while another process uses the leaderboard, false to fail.
+     */
+    private Leaderboard(String directory, boolean wait) throws IOException {
+        this.directory = directory;
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        log = FileChannel.open(path.resolve("results.log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = wait ? log.lock() : log.tryLock();
+        } catch (OverlappingFileLockException e) {
+            log.close();
+            throw new IOException("leaderboard " + directory + " is in use by another game");
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        if (lock == null) {
+            log.close();
+            throw new IOException("leaderboard " + directory + " is in use by another process");
+        }
+        indexChannel = FileChannel.open(path.resolve("players.idx"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            openLog();
+            if (!openIndex()) rebuildIndex();
+            else if (logLength < log.size()) replay(logLength);
+            index.putInt(STATE, IN_USE);
+            index.force();
+        } catch (IOException e) {
+            indexChannel.close();
+            log.close();
+            throw e;
+        }
+    }
+
+    private void openLog() throws IOException {
+        if (log.size() < LOG_HEADER_SIZE) {
+            log.truncate(0);
+            writeFully(ByteBuffer.allocate(LOG_HEADER_SIZE).putInt(0, LOG_MAGIC), 0);
+            log.force(true);
+        } else {
+            ByteBuffer magic = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            readFully(magic, 0);
+            if (magic.getInt(0) != LOG_MAGIC)
+                throw new IOException(directory + " does not hold a leaderboard");
+        }
+    }
+
+    /**
+     * Maps an existing index, if it was closed cleanly and matches the log.
+     *
+     * @return - true iff the index can be used.
+     */
+    private boolean openIndex() throws IOException {
+        if (indexChannel.size() < HEADER_SIZE) return false;
+        MappedByteBuffer header = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        int indexCapacity = header.getInt(CAPACITY);
+        long indexLogLength = header.getLong(LOG_LENGTH);
+        if (header.getInt(0) != INDEX_MAGIC || header.getInt(STATE) != CLEAN
+                || indexCapacity < INITIAL_CAPACITY || Integer.bitCount(indexCapacity) != 1
+                || indexChannel.size() != HEADER_SIZE + (long) indexCapacity * SLOT_SIZE
+                || indexLogLength < LOG_HEADER_SIZE || indexLogLength > log.size())
+            return false;
+        map(indexCapacity);
+        count = index.getInt(COUNT);
+        logLength = indexLogLength;
+        return true;
+    }
+
+    /**
+     * Rebuilds the index from the log.
+     */
+    private void rebuildIndex() throws IOException {
+        indexChannel.truncate(0);
+        map(INITIAL_CAPACITY);
+        index.putInt(0, INDEX_MAGIC);
+        index.putInt(STATE, IN_USE);
+        index.putInt(CAPACITY, capacity);
+        count = 0;
+        index.putInt(COUNT, 0);
+        replay(LOG_HEADER_SIZE);
+    }
+
+    private void map(int capacity) throws IOException {
+        this.capacity = capacity;
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    }
+
+    /**
+     * Adds the records in the log from a given offset to the index, and truncates a torn record at the end.
+     */
+    private void replay(long from) throws IOException {
+        log.position(from);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log), 1 << 16));
+        long offset = from;
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) break;
+                payload = new byte[length];
+                in.readFully(payload);
+                if (crc(payload) != crc) break;
+            } catch (EOFException e) {
+                break;
+            }
+            apply(offset, parse(payload));
+            offset += 8 + payload.length;
+        }
+        if (offset < log.size()) log.truncate(offset); // a torn record (the game crashed while appending it)
+        logLength = offset;
+        index.putLong(LOG_LENGTH, logLength);
+    }
+
+    /**
+     * Records a finished game.
+     *
+     * @param time           - the time the game ended.
+     * @param durationMillis - the length of the game.
+     * @param names          - the names of the players.
+     * @param scores         - the scores of the players.
+     * @param winners        - for each player, true iff the player won.
+     * @throws IOException - if the game could not be written to the log (it is then not recorded).
+     */
+    public synchronized void record(long time, long durationMillis, String[] names, int[] scores, boolean[] winners) throws IOException {
+        if (closed) throw new IOException("leaderboard " + directory + " is closed");
+        if (names.length > MAX_PLAYERS) throw new IOException("cannot record a game of " + names.length + " players");
+        String[] keys = new String[names.length];
+        long[] previous = new long[names.length];
+        for (int i = 0; i < names.length; i++) {
+            keys[i] = key(names[i]);
+            int slot = find(encode(keys[i]));
+            previous[i] = isEmpty(slot) ? -1 : index.getLong(slot + LAST);
+        }
+        Record record = new Record(time, durationMillis, keys, scores, winners, previous);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(record.time);
+        out.writeLong(record.durationMillis);
+        out.writeShort(names.length);
+        for (int i = 0; i < names.length; i++) {
+            out.writeUTF(keys[i]);
+            out.writeInt(scores[i]);
+            out.writeBoolean(winners[i]);
+            out.writeLong(previous[i]);
+        }
+        byte[] payload = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt(crc(payload)).put(payload).flip();
+
+        long offset = logLength;
+        try {
+            writeFully(buffer, offset);
+            log.force(false);
+        } catch (IOException e) {
+            log.truncate(offset);
+            throw e;
+        }
+        apply(offset, record);
+        logLength = offset + buffer.capacity();
+        index.putLong(LOG_LENGTH, logLength);
+    }
+
+    /**
+     * Records a finished game in the leaderboard in a directory, which is open only meanwhile. Waits while another
+     * game (of this process or another one) records its result.
+     *
+     * @param directory      - the leaderboard directory.
+     * @param time           - the time the game ended.
+     * @param durationMillis - the length of the game.
+     * @param names          - the names of the players.
+     * @param scores         - the scores of the players.
+     * @param winners        - for each player, true iff the player won.
+     * @throws IOException - if the leaderboard cannot be opened, or the game could not be written to the log.
+     */
+    public static void record(String directory, long time, long durationMillis, String[] names, int[] scores, boolean[] winners) throws IOException {
+        Object monitor = recording.computeIfAbsent(Paths.get(directory).toAbsolutePath().normalize(), path -> new Object());
+        synchronized (monitor) {
+            try (Leaderboard leaderboard = new Leaderboard(directory, true)) {
+                leaderboard.record(time, durationMillis, names, scores, winners);
+            }
+        }
+    }
+
+    /**
+     * Adds a record to the totals of its players (unless it was already added).
+     */
+    private void apply(long offset, Record record) throws IOException {
+        for (int i = 0; i < record.names.length; i++) {
+            byte[] name = encode(record.names[i]);
+            int slot = find(name);
+            if (isEmpty(slot)) {
+                if (count + 1 > capacity * 3L / 4) {
+                    grow();
+                    slot = find(name);
+                }
+                index.putShort(slot, (short) name.length);
+                for (int b = 0; b < name.length; b++) index.put(slot + NAME + b, name[b]);
+                index.putLong(slot + LAST, -1);
+                index.putInt(COUNT, ++count);
+            }
+            if (index.getLong(slot + LAST) >= offset) continue; // the same name twice in a game
+            index.putLong(slot + GAMES, index.getLong(slot + GAMES) + 1);
+            if (record.winners[i]) index.putLong(slot + WINS, index.getLong(slot + WINS) + 1);
+            index.putLong(slot + SCORE, index.getLong(slot + SCORE) + record.scores[i]);
+            index.putLong(slot + LAST, offset);
+        }
+    }
+
+    /**
+     * Doubles the capacity of the index.
+     */
+    private void grow() throws IOException {
+        byte[] slots = new byte[capacity * SLOT_SIZE];
+        index.get(HEADER_SIZE, slots);
+        map(capacity * 2);
+        index.putInt(CAPACITY, capacity);
+        for (int position = HEADER_SIZE; position < index.capacity(); position += 8)
+            index.putLong(position, 0);
+        for (int from = 0; from < slots.length; from += SLOT_SIZE) {
+            int length = ((slots[from] & 0xff) << 8) | (slots[from + 1] & 0xff);
+            if (length == 0) continue;
+            byte[] name = new byte[length];
+            System.arraycopy(slots, from + NAME, name, 0, length);
+            index.put(find(name), slots, from, SLOT_SIZE);
+        }
+    }
+
+    /**
+     * @return - the position of the slot of a name in the index, or of the empty slot where it belongs.
+     */
+    private int find(byte[] name) {
+        int hash = 0x811c9dc5; // FNV-1a
+        for (byte b : name) hash = (hash ^ (b & 0xff)) * 0x01000193;
+        int mask = capacity - 1;
+        for (int i = (hash ^ (hash >>> 16)) & mask; ; i = (i + 1) & mask) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            if (isEmpty(slot) || matches(slot, name)) return slot;
+        }
+    }
+
+    private boolean isEmpty(int slot) {
+        return index.getShort(slot) == 0;
+    }
+
+    private boolean matches(int slot, byte[] name) {
+        if (index.getShort(slot) != name.length) return false;
+        for (int b = 0; b < name.length; b++)
+            if (index.get(slot + NAME + b) != name[b]) return false;
+        return true;
+    }
+
+    private String name(int slot) {
+        byte[] name = new byte[index.getShort(slot)];
+        index.get(slot + NAME, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return - the name as kept in the leaderboard (cut short to MAX_NAME_BYTES).
+     */
+    private static String key(String name) {
+        String key = name.isEmpty() ? "?" : name;
+        while (encode(key).length > MAX_NAME_BYTES)
+            key = key.substring(0, key.offsetByCodePoints(key.length(), -1));
+        return key;
+    }
+
+    private static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param n - the number of players.
+     * @return  - the players with the most wins (then the highest total score), best first.
+     */
+    public synchronized List<Standing> top(int n) {
+        Comparator<Standing> order = Comparator.<Standing>comparingLong(s -> s.wins).thenComparingLong(s -> s.totalScore);
+        PriorityQueue<Standing> best = new PriorityQueue<>(order);
+        for (int slot = HEADER_SIZE; slot < index.capacity() && n > 0; slot += SLOT_SIZE) {
+            if (isEmpty(slot)) continue;
+            best.add(standing(slot));
+            if (best.size() > n) best.poll();
+        }
+        List<Standing> top = new ArrayList<>(best);
+        top.sort(order.reversed());
+        return top;
+    }
+
+    /**
+     * @param name - the player's name.
+     * @return     - the player's totals (null if the player has no recorded games).
+     */
+    public synchronized Standing standing(String name) {
+        int slot = find(encode(key(name)));
+        return isEmpty(slot) ? null : standing(slot);
+    }
+
+    private Standing standing(int slot) {
+        return new Standing(name(slot), index.getLong(slot + GAMES), index.getLong(slot + WINS), index.getLong(slot + SCORE));
+    }
+
+    /**
+     * @param name  - the player's name.
+     * @param limit - the maximum number of games to return.
+     * @return      - the player's results in the player's last games, latest first.
+     * @throws IOException - if the log cannot be read.
+     */
+    public synchronized List<Result> history(String name, int limit) throws IOException {
+        String key = key(name);
+        int slot = find(encode(key));
+        List<Result> results = new ArrayList<>();
+        long offset = isEmpty(slot) ? -1 : index.getLong(slot + LAST);
+        while (offset >= 0 && results.size() < limit) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(header, offset);
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(0));
+            readFully(payload, offset + 8);
+            Record record = parse(payload.array());
+            int player = 0;
+            while (player < record.names.length && !record.names[player].equals(key)) player++;
+            if (player == record.names.length) throw new IOException("leaderboard " + directory + " is damaged at " + offset);
+            int rank = 1;
+            for (int score : record.scores)
+                if (score > record.scores[player]) rank++;
+            results.add(new Result(record.time, record.durationMillis, record.scores[player], record.winners[player], rank, record.names.length));
+            offset = record.previous[player];
+        }
+        return results;
+    }
+
+    /**
+     * @return - the number of players in the leaderboard.
+     */
+    public synchronized int players() {
+        return count;
+    }
+
+    private static Record parse(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long time = in.readLong();
+        long durationMillis = in.readLong();
+        int players = in.readUnsignedShort();
+        String[] names = new String[players];
+        int[] scores = new int[players];
+        boolean[] winners = new boolean[players];
+        long[] previous = new long[players];
+        for (int i = 0; i < players; i++) {
+            names[i] = in.readUTF();
+            scores[i] = in.readInt();
+            winners[i] = in.readBoolean();
+            previous[i] = in.readLong();
+        }
+        return new Record(time, durationMillis, names, scores, winners, previous);
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            position += log.write(buffer, position);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if (read < 0) throw new EOFException("leaderboard " + directory + " is truncated at " + position);
+            position += read;
+        }
+    }
+
+    /**
+     * Writes the index to disk and marks it as closed cleanly.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            index.force();
+            index.putInt(STATE, CLEAN);
+            index.force();
+        } finally {
+            lock.release();
+            indexChannel.close();
+            log.close();
+        }
+    }
+
+    /**
+     * Prints the top players, or a player's history.
+     *
+     * @param args - the leaderboard directory (default leaderboard), and optionally a player's name.
+     */
+    public static void main(String[] args) throws IOException {
+        try (Leaderboard leaderboard = new Leaderboard(args.length > 0 ? args[0] : "leaderboard")) {
+            if (args.length > 1) {
+                System.out.println(leaderboard.standing(args[1]));
+                for (Result result : leaderboard.history(args[1], 20))
+                    System.out.println("  " + result);
+            } else {
+                System.out.println(leaderboard.players() + " players");
+                for (Standing standing : leaderboard.top(10))
+                    System.out.println("  " + standing);
+            }
+        }
+    }
+}
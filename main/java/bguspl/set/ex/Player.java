@@ -1,6 +1,8 @@
 package bguspl.set.ex;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import bguspl.set.Env;
@@ -22,6 +24,7 @@ public class Player implements Runnable {
      * Game entities.
      */
     private final Table table;
+    private final Dealer dealer;
 
     /**
      * The id of the player (starting from 0).
@@ -31,12 +34,22 @@ public class Player implements Runnable {
     /**
      * The thread representing the current player.
      */
-    private Thread playerThread;
+    private volatile Thread playerThread;
 
     /**
      * The thread of the AI (computer) player (an additional thread used to generate key presses).
      */
-    private Thread aiThread;
+    private Future<?> aiThread;
+
+    /**
+     * The key presses waiting for the player thread (at most setSize).
+     */
+    private final KeyPressQueue keyPresses;
+
+    /**
+     * The random choices of the AI (seeded from the game's seed, so batches of seeded games are reproducible).
+     */
+    private final Random random;
 
     /**
      * True iff the player is human (not a computer player).
@@ -53,7 +66,7 @@ public class Player implements Runnable {
      */
     private int score;
 
-    public long freezeEndTime;
+    public volatile long freezeEndTime;
 
     // public Object aiLock;
     
@@ -73,13 +86,16 @@ public class Player implements Runnable {
     public Player(Env env, Dealer dealer, Table table, int id, boolean human) {
         this.env = env;
         this.table = table;
+        this.dealer = dealer;
         this.id = id;
         this.human = human;
         this.score = 0;
         this.terminate = false;
         this.freezeEndTime = 0;
+        this.keyPresses = new KeyPressQueue(env.config.setSize);
         // this.aiLock = new Object();
         this.action = "";
+        this.random = new Random(env.config.randomSeed + 1 + id);
     }
 
     /**
@@ -92,20 +108,20 @@ public class Player implements Runnable {
         if (!human) createArtificialIntelligence();
 
         while (!terminate) {
-            synchronized(this){
-                try { 
-                    env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " BEFORE PLAYER RUN WAIT.");
-                    this.wait();
-                    env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " AFTER PLAYER RUN WAIT.");
-                } catch (InterruptedException ignored) {}
+            env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " BEFORE PLAYER RUN WAIT.");
+            // woken (unparked) by a key press, a verdict or termination - whichever comes first
+            while(!terminate && this.keyPresses.isEmpty() && !hasVerdict()){
+                env.clock.park(this);
+            }
+            env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " AFTER PLAYER RUN WAIT.");
+            // the presses made before the verdict arrived are applied before the player is frozen
+            for(int slot; (slot = this.keyPresses.poll()) >= 0; ){
+                pressKey(slot);
+            }
+            if(hasVerdict()){
+                doAction();
             }
-            doAction();
-            
-        }
-        synchronized(this.table.aiLock[id]){
-            this.table.aiLock[id].notifyAll();
         }
-        if (!human) try { aiThread.join(); } catch (InterruptedException ignored) {}
         env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
     }
 
@@ -126,106 +142,176 @@ public class Player implements Runnable {
         this.table.setAction(id, a);
     }
 
+    /**
+     * @return - true iff the dealer gave a verdict the player did not act on yet (it is set under the player's lock).
+     */
+    private boolean hasVerdict(){
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("player", waitStart);
+            try {
+                return this.table.hasAction(id);
+            } finally {
+                env.locks.exit("player", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Wakes the player thread (e.g. when the dealer gave it a verdict).
+     */
+    void wake(){
+        env.clock.unpark(playerThread);
+    }
+
     /**
      * Creates an additional thread for an AI (computer) player. The main loop of this thread repeatedly generates
-     * key presses. If the queue of key presses is full, the thread waits until it is not full.
+     * key presses. The presses are queued like the keyboard's (see keyPressed) - the AI makes at most setSize
+     * presses between verdicts, so it never finds the queue full.
      */
     private void createArtificialIntelligence() {
         // note: this is a very very smart AI (!)
-        aiThread = new Thread(() -> {
+        aiThread = dealer.shutdown.submit(env.executor, env.clock.registered(() -> {
             env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " starting.");
             while (!terminate) {
+                long waitStart = env.locks.enter();
                 synchronized (this.table.aiLock[id]){
-                    cancelPrevSelection();
-                    env.logger.log(Level.INFO, Thread.currentThread().getName() + ": After Cancel selection");
-
-                    aiSelection();
-                    env.logger.log(Level.INFO, Thread.currentThread().getName() + ": After selection");
-
+                    long holdStart = env.locks.entered("aiLock", waitStart);
                     try {
-                        env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": Before Wait");
+                        cancelPrevSelection();
+                        env.logger.log(Level.INFO, Thread.currentThread().getName() + ": After Cancel selection");
 
-                        this.table.aiLock[id].wait();
-                        this.sleepIfNeeded();
-                        env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": After Wait");
+                        aiSelection();
+                        env.logger.log(Level.INFO, Thread.currentThread().getName() + ": After selection");
 
-                    } catch (InterruptedException ignored) {}
+                        env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": Before Wait");
+                        env.locks.exit("aiLock", holdStart); // the wait releases the lock
+                        try {
+                            env.clock.await(this.table.aiLock[id], 0);
+                            this.sleepIfNeeded();
+                            env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": After Wait");
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            holdStart = env.locks.enter(); // held again (not counted as a new acquisition)
+                        }
+                    } finally {
+                        env.locks.exit("aiLock", holdStart);
+                    }
                 }
             }
             env.logger.log(Level.INFO, "Thread " + Thread.currentThread().getName() + " terminated.");
-        }, "computer-" + id);
-        aiThread.start();
+        }), "computer-" + id, this::terminate);
     }
 
+    /**
+     * Waits (holding the AI lock) until the player's freeze ends. Waits on the AI lock rather than sleeping, so the
+     * lock is released meanwhile and the AI can be woken when the game terminates.
+     */
     private void sleepIfNeeded(){
-        if(System.currentTimeMillis() < this.freezeEndTime){
+        long remaining;
+        while(!terminate && (remaining = this.freezeEndTime - env.clock.millis()) > 0){
             try {
-                Thread.sleep(this.freezeEndTime - System.currentTimeMillis());
-            } catch (InterruptedException ignored) {}
+                env.clock.await(this.table.aiLock[id], remaining);
+            } catch (InterruptedException ignored) {
+                return;
+            }
         }
     }
 
     public void cancelPrevSelection(){
-        Integer[][] tokenToSlot = this.table.getTokenToSlot();
-        Integer[] slots = tokenToSlot[id];
-        for(int i=0; i<slots.length; i++){
-            if(slots[i] != null)
-                this.table.removeToken(id, slots[i]);
-        }
+        this.table.cancelTokens(id);
     }
 
     public void aiSelection(){
-        if(this.freezeEndTime <= System.currentTimeMillis()){
-            Random rand = new Random();
-            int s1 = rand.nextInt(env.config.tableSize);
-            this.keyPressed(s1);
-            int s2 = rand.nextInt(env.config.tableSize);
-            while(s2 == s1){
-                s2 = rand.nextInt(env.config.tableSize);
+        if(this.freezeEndTime <= env.clock.millis()){
+            Random rand = this.random;
+            if(rand.nextDouble() < env.config.computerSkill){
+                // the solver shares its sets with all the computer players (they are found once per table version)
+                List<int[]> sets = this.table.getSolver().solutions().slots;
+                if(!sets.isEmpty()){
+                    for(int slot : sets.get(rand.nextInt(sets.size()))){
+                        this.keyPressed(slot);
+                    }
+                    return;
+                }
             }
-            this.keyPressed(s2);
-
-            int s3 = rand.nextInt(env.config.tableSize);
-            while(s3 == s1 || s3 == s2){
-                s3 = rand.nextInt(env.config.tableSize);
+            // setSize different random slots
+            int[] chosen = new int[Math.min(env.config.setSize, env.config.tableSize)];
+            for(int i=0; i < chosen.length; i++){
+                boolean taken = true;
+                while(taken){
+                    chosen[i] = rand.nextInt(env.config.tableSize);
+                    taken = false;
+                    for(int j=0; j < i; j++){
+                        if(chosen[j] == chosen[i]) taken = true;
+                    }
+                }
+                this.keyPressed(chosen[i]);
             }
-            this.keyPressed(s3);
         }
 
     }
 
     /**
-     * Called when the game should be terminated due to an external event.
+     * Called when the game should be terminated due to an external event. Wakes the player thread and the AI thread
+     * (if any) so they see it.
      */
     public void terminate() {
         this.terminate=true;
+        wake();
+        long waitStart = env.locks.enter();
+        synchronized(this.table.aiLock[id]){
+            long holdStart = env.locks.entered("aiLock", waitStart);
+            try {
+                env.clock.signalAll(this.table.aiLock[id]);
+            } finally {
+                env.locks.exit("aiLock", holdStart);
+            }
+        }
     }
 
     /**
-     * This method is called when a key is pressed.
+     * This method is called when a key is pressed (by the keyboard, the network or the AI). It never blocks: the press
+     * is queued for the player thread, and dropped if the player is frozen or already has setSize presses pending.
      *
      * @param slot - the slot corresponding to the key pressed.
      */
     public void keyPressed(int slot) {
-        if(this.freezeEndTime <= System.currentTimeMillis()){
-            Integer[][] tokenToSlot = this.table.getTokenToSlot();
-            boolean exists = false;
-            for(int i=0; i < tokenToSlot[id].length; i++){
-                if(tokenToSlot[id][i] != null && tokenToSlot[id][i] == slot){
-                    exists = true;
-                    break;
-                }
-            }
-            if(exists){
-                this.table.removeToken(id, slot);
-            }
-            else{
-                env.logger.log(Level.INFO, Thread.currentThread().getName() + " Player " + id + " Placing Token On Slot " + slot);
-                this.table.placeToken(id, slot);
-            }
+        if(this.freezeEndTime > env.clock.millis()){
+            return;
+        }
+        if(this.keyPresses.offer(slot)){
+            wake();
+        }
+        else{
+            env.metrics.keyPressDropped();
         }
     }
 
+    /**
+     * Applies a key press on the calling thread (unless the player is frozen): toggles the player's token on the slot.
+     * Called by the player thread for the queued presses.
+     *
+     * @param slot - the slot corresponding to the key pressed.
+     */
+    public void pressKey(int slot) {
+        if(this.freezeEndTime <= env.clock.millis()){
+            this.table.toggleToken(id, slot);
+        }
+    }
+
+    /**
+     * Applies a recorded key press on the calling thread, even if the player is frozen - the press was accepted in the
+     * recorded game, and the freeze of the replay may end a little later than the recorded one. Called by the replay
+     * (which must apply the recorded presses at once and in order).
+     *
+     * @param slot - the slot corresponding to the key pressed.
+     * @param card - the card that was in the slot when the key was pressed.
+     */
+    void replayKeyPress(int slot, int card) {
+        this.table.replayToken(id, slot, card);
+    }
+
     /**
      * Award a point to a player and perform other related actions.
      *
@@ -256,26 +342,39 @@ public class Player implements Runnable {
     }
 
     private void freezePLayer(long freezeTime){
+        GameEvents.FreezeEvent event = new GameEvents.FreezeEvent();
+        event.begin();
         env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": INSIDE FREEZE (" + id + ")");
-        this.freezeEndTime = System.currentTimeMillis() + freezeTime;
+        this.freezeEndTime = env.clock.millis() + freezeTime;
         long timer = freezeTime;
-        while(timer >= 1000){
-            this.env.ui.setFreeze(id, timer);
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ex_ignored) {}
-            timer = timer-1000;
-        }
         try {
-            Thread.sleep(timer);
-        } catch (InterruptedException ex_ignored) {}
+            while(!terminate && timer >= 1000){
+                this.env.ui.setFreeze(id, timer);
+                env.clock.sleep(1000);
+                timer = timer-1000;
+            }
+            if(!terminate){
+                env.clock.sleep(timer);
+            }
+        } catch (InterruptedException ex_ignored) {} // the game is shutting down
 
         this.env.ui.setFreeze(id, 0);
+        event.end();
+        if (event.shouldCommit()) {
+            event.player = id;
+            event.freezeMillis = freezeTime;
+            event.commit();
+        }
         env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": Before SYNC FREEZE (" + id + ")");
+        long waitStart = env.locks.enter();
         synchronized(this.table.aiLock[id]){
-            env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": Before NOTIFY FREEZE (" + id + ")");
-            this.table.aiLock[id].notifyAll();
-            
+            long holdStart = env.locks.entered("aiLock", waitStart);
+            try {
+                env.logger.log(Level.INFO, "["+System.currentTimeMillis() +"] " + Thread.currentThread().getName() + ": Before NOTIFY FREEZE (" + id + ")");
+                env.clock.signalAll(this.table.aiLock[id]);
+            } finally {
+                env.locks.exit("aiLock", holdStart);
+            }
         }
     }
 
@@ -0,0 +1,82 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.logging.Level;
+
+/**
+ * This class replays a recorded game journal, feeding the recorded key presses to the players and the recorded
+ * reshuffles to the dealer.
+ *
+ * In real time mode the events are fed with their recorded timing (on the game clock). In fast forward mode each event is fed as soon as
+ * the dealer finished handling the previous one, so the same table states are reached regardless of timing.
+ */
+public class Replay implements Runnable {
+
+    /**
+     * The game environment object.
+     */
+    private final Env env;
+
+    /**
+     * Game entities.
+     */
+    private final Dealer dealer;
+    private final Player[] players;
+
+    /**
+     * The recording to replay.
+     */
+    private final Journal.Recording recording;
+
+    /**
+     * True iff the events should be fed at maximum speed (and not with their recorded timing).
+     */
+    private final boolean fastForward;
+
+    public Replay(Env env, Dealer dealer, Player[] players, Journal.Recording recording, boolean fastForward) {
+        this.env = env;
+        this.dealer = dealer;
+        this.players = players;
+        this.recording = recording;
+        this.fastForward = fastForward;
+    }
+
+    /**
+     * The replay thread starts here.
+     */
+    @Override
+    public void run() {
+        env.logger.log(Level.INFO, "replaying " + recording.entries.size() + " events (seed " + recording.seed + ")");
+        long startTime = env.clock.millis();
+        try {
+            for (Journal.Entry entry : recording.entries) {
+                if (dealer.isFinished()) break;
+                if (fastForward)
+                    dealer.awaitIdle();
+                else {
+                    long delay = startTime + entry.time - env.clock.millis();
+                    if (delay > 0) env.clock.sleep(delay);
+                }
+
+                switch (entry.type) {
+                    case Journal.KEY_PRESS:
+                        if (entry.player < players.length) players[entry.player].replayKeyPress(entry.slot, entry.card);
+                        break;
+                    case Journal.CANCEL_SELECTION:
+                        if (entry.player < players.length) players[entry.player].cancelPrevSelection();
+                        break;
+                    case Journal.RESHUFFLE:
+                        dealer.reshuffle();
+                        break;
+                    case Journal.TERMINATE:
+                        dealer.terminate();
+                        break;
+                    default:
+                        env.logger.severe("unknown journal entry type " + entry.type);
+                }
+            }
+        } catch (InterruptedException ignored) {}
+        env.logger.log(Level.INFO, "replay done after " + (env.clock.millis() - startTime) + " ms");
+    }
+}
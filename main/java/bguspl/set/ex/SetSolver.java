@@ -0,0 +1,147 @@
+package bguspl.set.ex;
+
+import bguspl.set.Env;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds all the legal sets on the table, once per table version (see TableSnapshot::version), and shares the result
+ * with any number of consumers (e.g. computer players and the hints printer).
+ *
+ * The sets are computed on the game's executor - never on the dealer thread - by the first request for a version; the
+ * requests that follow (and the ones made while it is being computed) get the same result.
+ */
+public class SetSolver {
+
+    /**
+     * The legal sets on the table at a given version.
+     */
+    public static final class Solutions {
+
+        /**
+         * The table version the sets were found in.
+         */
+        public final long version;
+
+        /**
+         * The cards of each set.
+         */
+        public final List<int[]> cards;
+
+        /**
+         * The slots of each set (in the same order as the cards).
+         */
+        public final List<int[]> slots;
+
+        private Solutions(long version, List<int[]> cards, List<int[]> slots) {
+            this.version = version;
+            this.cards = cards;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * The solutions of the latest version requested (completed once they are found).
+     */
+    private static final class Pending {
+
+        final long version;
+        final CompletableFuture<Solutions> result = new CompletableFuture<>();
+
+        Pending(long version) {
+            this.version = version;
+        }
+    }
+
+    private final Env env;
+    private final Table table;
+    private final AtomicReference<Pending> latest = new AtomicReference<>(new Pending(-1));
+
+    /**
+     * Statistics.
+     */
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder computed = new LongAdder();
+
+    /**
+     * @param env   - the game environment objects.
+     * @param table - the table to solve.
+     */
+    public SetSolver(Env env, Table table) {
+        this.env = env;
+        this.table = table;
+    }
+
+    /**
+     * Requests the sets on the table at its current version (or at a later version, if the table changed meanwhile).
+     *
+     * @return - the solutions, completed once they are found.
+     */
+    public CompletableFuture<Solutions> solve() {
+        requests.increment();
+        while (true) {
+            TableSnapshot snapshot = table.snapshot();
+            Pending current = latest.get();
+            if (current.version >= snapshot.version) return current.result;
+
+            Pending next = new Pending(snapshot.version);
+            if (latest.compareAndSet(current, next)) {
+                try {
+                    env.executor.execute(() -> complete(next, snapshot));
+                } catch (RejectedExecutionException e) {
+                    complete(next, snapshot); // the game is shutting down
+                }
+                return next.result;
+            }
+        }
+    }
+
+    /**
+     * Requests the sets on the table and waits for them.
+     *
+     * @return - the solutions at the current (or a later) table version.
+     */
+    public Solutions solutions() {
+        return solve().join();
+    }
+
+    private void complete(Pending pending, TableSnapshot snapshot) {
+        try {
+            pending.result.complete(find(snapshot));
+        } catch (RuntimeException e) {
+            pending.result.completeExceptionally(e);
+        }
+    }
+
+    private Solutions find(TableSnapshot snapshot) {
+        long start = System.nanoTime();
+        int[] slotOfCard = new int[env.config.deckSize];
+        List<Integer> deck = new ArrayList<>();
+        for (int slot = 0; slot < env.config.tableSize; slot++) {
+            int card = snapshot.card(slot);
+            if (card >= 0) {
+                slotOfCard[card] = slot;
+                deck.add(card);
+            }
+        }
+
+        List<int[]> cards = env.util.findSets(deck, Integer.MAX_VALUE);
+        List<int[]> slots = new ArrayList<>(cards.size());
+        for (int[] set : cards)
+            slots.add(Arrays.stream(set).map(card -> slotOfCard[card]).toArray());
+        computed.increment();
+        env.metrics.findSets.recordSince(start);
+        return new Solutions(snapshot.version, cards, slots);
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + requests.sum() + " computed=" + computed.sum();
+    }
+}
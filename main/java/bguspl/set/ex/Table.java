@@ -8,6 +8,8 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.Random;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
 
@@ -39,13 +41,39 @@ public class Table {
 
     protected final Integer[][] tokenToSlot;
 
-    Queue<Integer> player_order;
+    /**
+     * The current snapshot of the table, replaced (never modified) on every change.
+     */
+    private final AtomicReference<TableSnapshot> snapshot;
+
+    /**
+     * Finds the sets on the table once per version, for everyone who needs them.
+     */
+    private final SetSolver solver;
+
+    /**
+     * The claims waiting for the dealer, in the order they were made.
+     */
+    private final Queue<Claim> claims;
 
     public Object dealerLock;
 
     public Object[] aiLock;
     public String[] actions;
 
+    /**
+     * The seed of the random card draws (the same seed yields the same draws).
+     */
+    private final long seed;
+    private final Random random;
+
+    /**
+     * The journal the game is recorded to (null if the game is not recorded). The presses, cancellations and
+     * reshuffles are journaled holding the table's monitor, together with the token changes they make, so the journal
+     * has them in the order they were applied.
+     */
+    private Journal journal;
+
 
     /**
      * Constructor for testing.
@@ -56,15 +84,36 @@ public class Table {
      */
     public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot) {
 
+        this(env, slotToCard, cardToSlot, env.config.randomSeed);
+    }
+
+    /**
+     * Constructor for a table with a given random seed (e.g. for replaying a recorded game).
+     *
+     * @param env        - the game environment objects.
+     * @param slotToCard - mapping between a slot and the card placed in it (null if none).
+     * @param cardToSlot - mapping between a card and the slot it is in (null if none).
+     * @param seed       - the seed of the random card draws.
+     */
+    public Table(Env env, Integer[] slotToCard, Integer[] cardToSlot, long seed) {
+
         this.env = env;
+        this.seed = seed;
+        this.random = new Random(seed);
         this.slotToCard = slotToCard;
         this.cardToSlot = cardToSlot;
         this.avlb_deck = new ArrayList<Integer>();
         for(Integer i=0;i<env.config.deckSize;i++){
             this.avlb_deck.add(i);
         }
-        this.tokenToSlot = new Integer[env.config.players][env.config.featureSize];
-        this.player_order = new LinkedList<Integer>();
+        this.tokenToSlot = new Integer[env.config.players][env.config.setSize];
+        TableSnapshot initial = TableSnapshot.empty(slotToCard.length, env.config.players);
+        for (int slot = 0; slot < slotToCard.length; slot++)
+            if (slotToCard[slot] != null)
+                initial = initial.withCards(new int[]{slotToCard[slot]}, new int[]{slot});
+        this.snapshot = new AtomicReference<>(initial);
+        this.solver = new SetSolver(env, this);
+        this.claims = new ConcurrentLinkedQueue<>();
 
         dealerLock = new Object();
         aiLock = new Object[env.config.players];
@@ -88,18 +137,56 @@ public class Table {
     }
 
     /**
-     * This method prints all possible legal sets of cards that are currently on the table.
+     * Constructor for actual usage with a given random seed.
+     *
+     * @param env  - the game environment objects.
+     * @param seed - the seed of the random card draws.
+     */
+    public Table(Env env, long seed) {
+
+        this(env, new Integer[env.config.tableSize], new Integer[env.config.deckSize], seed);
+    }
+
+    /**
+     * This method prints all possible legal sets of cards that are currently on the table. The sets are found by the
+     * solver (off the calling thread) and printed once they are found.
      */
     public void hints() {
-        List<Integer> deck = Arrays.stream(slotToCard).filter(Objects::nonNull).collect(Collectors.toList());
-        env.util.findSets(deck, Integer.MAX_VALUE).forEach(set -> {
-            StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
-            List<Integer> slots = Arrays.stream(set).mapToObj(card -> cardToSlot[card]).sorted().collect(Collectors.toList());
-            int[][] features = env.util.cardsToFeatures(set);
-            System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+        solver.solve().thenAccept(solutions -> {
+            int[][] features = new int[env.config.setSize][env.config.featureCount]; // reused for all the sets
+            for (int i = 0; i < solutions.cards.size(); i++) {
+                StringBuilder sb = new StringBuilder().append("Hint: Set found: ");
+                List<Integer> slots = Arrays.stream(solutions.slots.get(i)).boxed().sorted().collect(Collectors.toList());
+                env.util.cardsToFeatures(solutions.cards.get(i), features);
+                System.out.println(sb.append("slots: ").append(slots).append(" features: ").append(Arrays.deepToString(features)));
+            }
         });
     }
 
+    /**
+     * @return - the solver of the sets on this table (shared by all its users).
+     */
+    public SetSolver getSolver() {
+        return solver;
+    }
+
+    /**
+     * Returns a consistent snapshot of the table. It never blocks (nor delays the threads changing the table), so it
+     * can be called as often as needed from any thread.
+     *
+     * @return - the current snapshot of the table.
+     */
+    public TableSnapshot snapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * @return - the current version of the cards on the table (see TableSnapshot::version).
+     */
+    public long version() {
+        return snapshot.get().version;
+    }
+
     /**
      * Count the number of cards currently on the table.
      *
@@ -121,28 +208,78 @@ public class Table {
      * @post - the card placed is on the table, in the assigned slot.
      */
     public void placeCard(int card, int slot) {
+        GameEvents.CardEvent event = new GameEvents.CardEvent();
+        event.begin();
         try {
-            Thread.sleep(env.config.tableDelayMillis);
+            env.clock.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
 
         cardToSlot[card] = slot;
         slotToCard[slot] = card;
+        snapshot.updateAndGet(table -> table.withCards(new int[]{card}, new int[]{slot}));
 
         this.env.ui.placeCard(card, slot);
         // avlb_deck.remove(card);
+        commitCardEvent(event, "place", card, slot);
+    }
+
+    /**
+     * Places several cards on the table at once. The table delay is left to the user interface (which may show the
+     * cards one after the other), so the caller is not delayed.
+     * @param cards - the card ids to place.
+     * @param slots - the slot in which each card should be placed.
+     *
+     * @post - the cards placed are on the table, in the assigned slots.
+     */
+    public void placeCards(int[] cards, int[] slots) {
+        for (int i = 0; i < cards.length; i++) {
+            GameEvents.CardEvent event = new GameEvents.CardEvent();
+            event.begin();
+            cardToSlot[cards[i]] = slots[i];
+            slotToCard[slots[i]] = cards[i];
+            commitCardEvent(event, "place", cards[i], slots[i]);
+        }
+        snapshot.updateAndGet(table -> table.withCards(cards, slots));
+        this.env.ui.placeCards(cards, slots);
+    }
+
+    private static void commitCardEvent(GameEvents.CardEvent event, String action, int card, int slot) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.action = action;
+            event.card = card;
+            event.slot = slot;
+            event.commit();
+        }
     }
 
     public void setAction(int player_id, String a){
+        long waitStart = env.locks.enter();
         synchronized(actions[player_id]){
-            this.actions[player_id] = a;
+            long holdStart = env.locks.entered("actions", waitStart);
+            try {
+                this.actions[player_id] = a;
+            } finally {
+                env.locks.exit("actions", holdStart);
+            }
         }
     }
 
+    public boolean hasAction(int player){
+        return !this.actions[player].isEmpty();
+    }
+
     public String getAction(int player){
+        long waitStart = env.locks.enter();
         synchronized(this.actions[player]){
-            String action = this.actions[player];
-            this.actions[player] = "";
-            return action;
+            long holdStart = env.locks.entered("actions", waitStart);
+            try {
+                String action = this.actions[player];
+                this.actions[player] = "";
+                return action;
+            } finally {
+                env.locks.exit("actions", holdStart);
+            }
         }
     }
 
@@ -153,16 +290,87 @@ public class Table {
      */
     public void removeCard(int slot, boolean is_set) {
         try {
-            Thread.sleep(env.config.tableDelayMillis);
+            env.clock.sleep(env.config.tableDelayMillis);
         } catch (InterruptedException ignored) {}
 
+        removeCards(new int[]{slot}, is_set);
+    }
+
+    /**
+     * Removes the cards from several grid slots at once, with a single user interface update and without a delay. The
+     * tokens of all the players on these slots are removed with the cards, so no token is left for the next card
+     * dealt to the slot.
+     * @param slots  - the slots from which to remove the cards.
+     * @param is_set - true iff the cards were taken as a set (and are not returned to the deck).
+     */
+    public void removeCards(int[] slots, boolean is_set) {
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                takeCards(slots, is_set);
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Returns all the cards on the table to the deck and removes all the tokens.
+     * @param reshuffle - true iff the table is cleared for a reshuffle due to turn timeout (journaled if the game is
+     *                    recorded).
+     * @return - the number of cards removed.
+     */
+    public int clearTable(boolean reshuffle) {
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                if (reshuffle && journal != null) journal.reshuffle();
+                int[] slots = new int[countCards()];
+                int removed = 0;
+                for (int slot = 0; slot < slotToCard.length; slot++)
+                    if (slotToCard[slot] != null)
+                        slots[removed++] = slot;
+                takeCards(slots, false);
+                clearTokens();
+                return removed;
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Removes the cards and the tokens from grid slots (called holding the table's monitor).
+     */
+    private void takeCards(int[] slots, boolean is_set) {
+        for (int slot : slots) {
+            takeCard(slot, is_set);
+            boolean tokens = false;
+            for (Integer[] playerTokens : tokenToSlot)
+                for (int i = 0; i < playerTokens.length; i++)
+                    if (playerTokens[i] != null && playerTokens[i] == slot) {
+                        playerTokens[i] = null;
+                        tokens = true;
+                    }
+            if (tokens) this.env.ui.removeTokens(slot);
+        }
+        snapshot.updateAndGet(table -> table.withoutCards(slots));
+        this.env.ui.removeCards(slots);
+    }
+
+    private void takeCard(int slot, boolean is_set) {
+        GameEvents.CardEvent event = new GameEvents.CardEvent();
+        event.begin();
+        int card = slotToCard[slot];
         if(!is_set){
-            avlb_deck.add(slotToCard[slot]);
+            avlb_deck.add(card);
         }
-        cardToSlot[slotToCard[slot]] = null;
+        cardToSlot[card] = null;
         slotToCard[slot] = null;
 
-        this.env.ui.removeCard(slot);
+        commitCardEvent(event, "remove", card, slot);
 
     }
 
@@ -176,8 +384,7 @@ public class Table {
         else if(avlb_deck.size() == 0){
             return -1;
         }
-        Random rand = new Random();
-        int card_id = rand.nextInt(avlb_deck.size());
+        int card_id = random.nextInt(avlb_deck.size());
         int card = avlb_deck.get(card_id);
         avlb_deck.remove(card_id);
         return card;
@@ -188,31 +395,151 @@ public class Table {
      * @param player - the player the token belongs to.
      * @param slot   - the slot on which to place the token.
      */
-    public synchronized void placeToken(int player, int slot) {
+    public void placeToken(int player, int slot) {
+        boolean claimed;
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                claimed = addToken(player, slot);
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+        if(claimed){
+            wakeDealer();
+        }
+    }
+
+    /**
+     * Toggles a player token on a grid slot: removes the player's token from the slot if there is one, and places one
+     * otherwise. The key press is journaled (if the game is recorded) together with the
+     * change.
+     * @param player - the player the token belongs to.
+     * @param slot   - the slot corresponding to the key pressed.
+     */
+    public void toggleToken(int player, int slot) {
+        toggleToken(player, slot, false, -1);
+    }
+
+    /**
+     * Toggles a player token on a grid slot for a recorded key press. A press recorded on another card than the one in
+     * the slot (or on an empty slot) is skipped: the replayed dealer is never behind the recording, so the press was
+     * made before the recorded dealer dealt or removed the card, and its token was removed with the card (or judged
+     * as a ruined claim).
+     * @param player - the player the token belongs to.
+     * @param slot   - the slot corresponding to the key pressed.
+     * @param card   - the card that was in the slot when the key was pressed.
+     */
+    void replayToken(int player, int slot, int card) {
+        toggleToken(player, slot, true, card);
+    }
+
+    private void toggleToken(int player, int slot, boolean replayed, int recordedCard) {
+        boolean claimed = false;
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                TableSnapshot table = snapshot();
+                int card = table.card(slot);
+                if (replayed && card != recordedCard) return;
+                if (table.hasToken(player, slot)) {
+                    if (journal != null) journal.keyPressed(player, slot, card);
+                    takeToken(player, slot);
+                } else {
+                    if (journal != null) journal.keyPressed(player, slot, card);
+                    env.logger.log(Level.INFO, Thread.currentThread().getName() + " Player " + player + " Placing Token On Slot " + slot);
+                    claimed = addToken(player, slot);
+                }
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+        if(claimed){
+            wakeDealer();
+        }
+    }
+
+    /**
+     * Removes all the tokens of a player. The cancellation is journaled (if the game is recorded) together with the
+     * change.
+     * @param player - the player the tokens belong to.
+     */
+    public void cancelTokens(int player) {
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                if (journal != null) journal.selectionCancelled(player);
+                for (int slot : snapshot().tokens(player))
+                    takeToken(player, slot);
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Wakes the dealer (e.g. when a claim was queued).
+     */
+    private void wakeDealer() {
+        long waitStart = env.locks.enter();
+        synchronized(this.dealerLock){
+            long holdStart = env.locks.entered("dealerLock", waitStart);
+            try {
+                env.clock.signalAll(this.dealerLock);
+            } finally {
+                env.locks.exit("dealerLock", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Adds a player token (called holding the table's monitor).
+     * @return - true iff the token completed a claim (which is then queued for the dealer).
+     */
+    private boolean addToken(int player, int slot) {
         int counter = 0;
         boolean inserted = false;
+        // the dealer may remove tokens meanwhile, so the claimed slots are the ones counted here (each read once)
+        int[] slots = new int[tokenToSlot[player].length];
         for(int i=0; i < tokenToSlot[player].length; i++){
-            if(tokenToSlot[player][i] == null && !inserted){
+            Integer token = tokenToSlot[player][i];
+            if(token == null && !inserted){
                 tokenToSlot[player][i] = slot;
+                snapshot.updateAndGet(table -> table.withToken(player, slot, true));
                 this.env.ui.placeToken(player, slot);
                 inserted = true;
-                counter++;
+                slots[counter++] = slot;
             }
-            else if(tokenToSlot[player][i] != null){
-                counter++;
+            else if(token != null){
+                slots[counter++] = token;
             }
         }
 
-        if(counter == env.config.featureSize){
-            synchronized(this.player_order){
-                env.logger.log(Level.INFO, Thread.currentThread().getName() + "Adding Player " + player + " to Queue");
-
-                this.player_order.add(player);
+        if(counter == env.config.setSize){
+            // the claim is taken against one snapshot, so its cards and version are consistent
+            TableSnapshot table = snapshot();
+            int[] cards = new int[counter];
+            for(int i=0; i < counter; i++){
+                cards[i] = table.card(slots[i]);
             }
-            synchronized(this.dealerLock){
-                this.dealerLock.notifyAll();
+            Claim claim = new Claim(player, System.nanoTime(), table.version, slots, cards);
+            GameEvents.ClaimEvent event = new GameEvents.ClaimEvent();
+            if (event.shouldCommit()) {
+                event.player = player;
+                event.slots = GameEvents.format(slots);
+                event.cards = GameEvents.format(cards);
+                event.tableVersion = table.version;
+                event.commit();
             }
+            env.logger.log(Level.INFO, Thread.currentThread().getName() + "Adding Player " + player + " to Queue");
+            this.claims.add(claim);
+            env.metrics.claimQueued();
+            return true;
         }
+        return false;
     }
 
     /**
@@ -222,21 +549,60 @@ public class Table {
      * @return       - true iff a token was successfully removed.
      */
     public boolean removeToken(int player, int slot) {
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                return takeToken(player, slot);
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Removes a token of a player from a grid slot (called holding the table's monitor).
+     * @return - true iff a token was removed.
+     */
+    private boolean takeToken(int player, int slot) {
+        boolean removed = false;
         for(int i=0; i < tokenToSlot[player].length; i++){
             if(tokenToSlot[player][i] != null && tokenToSlot[player][i] == slot){
                 tokenToSlot[player][i] = null;
+                snapshot.updateAndGet(table -> table.withToken(player, slot, false));
                 this.env.ui.removeToken(player, slot);
+                removed = true;
             }
         }
-        return false;
+        return removed;
+    }
+
+    /**
+     * Sets the journal the game is recorded to (called by the dealer before the game starts).
+     * @param journal - the journal, or null if the game is not recorded.
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public long getSeed(){
+        return seed;
     }
 
     public Integer[] getSlot(){
         return slotToCard;
     }
 
-    public Queue<Integer> getQueue(){
-        return player_order;
+    public Queue<Claim> getQueue(){
+        return claims;
+    }
+
+    /**
+     * Takes the next claim out of the claims queue.
+     * @return - the claim, or null if there are no claims.
+     */
+    public Claim pollClaim(){
+        return this.claims.poll();
     }
 
     public Integer[][] getTokenToSlot(){
@@ -252,9 +618,25 @@ public class Table {
     }
 
     public void removeTokens(){
+        long waitStart = env.locks.enter();
+        synchronized(this){
+            long holdStart = env.locks.entered("table", waitStart);
+            try {
+                clearTokens();
+            } finally {
+                env.locks.exit("table", holdStart);
+            }
+        }
+    }
+
+    /**
+     * Removes all the tokens (called holding the table's monitor).
+     */
+    private void clearTokens(){
         for(int i=0; i < env.config.players; i++){
-            tokenToSlot[i] = new Integer[env.config.featureSize];
+            tokenToSlot[i] = new Integer[env.config.setSize];
         }
+        snapshot.updateAndGet(TableSnapshot::withoutTokens);
 
         this.env.ui.removeTokens();
     }
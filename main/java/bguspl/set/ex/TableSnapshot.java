@@ -0,0 +1,140 @@
+package bguspl.set.ex;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the table: the card in each slot and the tokens of each player.
+ *
+ * The table publishes a new snapshot on every change (copy on write, sharing the unchanged parts with the previous
+ * snapshot), so any thread can read a consistent view of the table without taking a lock and without ever delaying
+ * the threads that change it.
+ */
+public final class TableSnapshot {
+
+    /**
+     * The version of the cards on the table - incremented whenever a card is placed or removed (but not when tokens
+     * are placed or removed).
+     */
+    public final long version;
+
+    /**
+     * The card in each slot (-1 if none).
+     */
+    private final int[] slotToCard;
+
+    /**
+     * For each player, true in each slot the player has a token on.
+     */
+    private final boolean[][] tokens;
+
+    private TableSnapshot(long version, int[] slotToCard, boolean[][] tokens) {
+        this.version = version;
+        this.slotToCard = slotToCard;
+        this.tokens = tokens;
+    }
+
+    /**
+     * @param tableSize - the number of slots.
+     * @param players   - the number of players.
+     * @return          - the snapshot of an empty table.
+     */
+    static TableSnapshot empty(int tableSize, int players) {
+        int[] slotToCard = new int[tableSize];
+        Arrays.fill(slotToCard, -1);
+        return new TableSnapshot(0, slotToCard, new boolean[players][tableSize]);
+    }
+
+    /**
+     * @param slot - the slot.
+     * @return     - the card in the slot, or -1 if the slot is empty.
+     */
+    public int card(int slot) {
+        return slotToCard[slot];
+    }
+
+    /**
+     * @return - the cards on the table (in slot order).
+     */
+    public int[] cards() {
+        return Arrays.stream(slotToCard).filter(card -> card >= 0).toArray();
+    }
+
+    /**
+     * @return - the number of cards on the table.
+     */
+    public int countCards() {
+        int cards = 0;
+        for (int card : slotToCard)
+            if (card >= 0)
+                ++cards;
+        return cards;
+    }
+
+    /**
+     * @param player - the player.
+     * @param slot   - the slot.
+     * @return       - true iff the player has a token on the slot.
+     */
+    public boolean hasToken(int player, int slot) {
+        return tokens[player][slot];
+    }
+
+    /**
+     * @param player - the player.
+     * @return       - the slots the player has tokens on (in slot order).
+     */
+    public int[] tokens(int player) {
+        boolean[] playerTokens = tokens[player];
+        int count = 0;
+        for (boolean token : playerTokens)
+            if (token)
+                ++count;
+        int[] slots = new int[count];
+        for (int slot = 0, i = 0; i < count; slot++)
+            if (playerTokens[slot])
+                slots[i++] = slot;
+        return slots;
+    }
+
+    TableSnapshot withCards(int[] cards, int[] slots) {
+        int[] newSlotToCard = slotToCard.clone();
+        for (int i = 0; i < cards.length; i++)
+            newSlotToCard[slots[i]] = cards[i];
+        return new TableSnapshot(version + 1, newSlotToCard, tokens);
+    }
+
+    /**
+     * @return - the snapshot without the cards in the given slots, and without any tokens on these slots.
+     */
+    TableSnapshot withoutCards(int[] slots) {
+        int[] newSlotToCard = slotToCard.clone();
+        boolean[][] newTokens = tokens;
+        for (int slot : slots) {
+            newSlotToCard[slot] = -1;
+            for (int player = 0; player < tokens.length; player++) {
+                if (!newTokens[player][slot]) continue;
+                if (newTokens == tokens) newTokens = tokens.clone();
+                if (newTokens[player] == tokens[player]) newTokens[player] = tokens[player].clone();
+                newTokens[player][slot] = false;
+            }
+        }
+        return new TableSnapshot(version + 1, newSlotToCard, newTokens);
+    }
+
+    TableSnapshot withToken(int player, int slot, boolean placed) {
+        if (tokens[player][slot] == placed) return this;
+        boolean[][] newTokens = tokens.clone();
+        newTokens[player] = tokens[player].clone();
+        newTokens[player][slot] = placed;
+        return new TableSnapshot(version, slotToCard, newTokens);
+    }
+
+    TableSnapshot withoutTokens() {
+        return new TableSnapshot(version, slotToCard, new boolean[tokens.length][slotToCard.length]);
+    }
+
+    @Override
+    public String toString() {
+        return "version " + version + ": " + Arrays.toString(slotToCard);
+    }
+}
@@ -0,0 +1,229 @@
+package bguspl.set;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the set rules compiled to lookup tables (see CompiledSetRule) and the incremental set search of UtilImpl
+ * against the straightforward implementation they replaced, extended to the SetMinFeatures and SetIgnoredFeatures
+ * variants.
+ */
+class UtilImplTest {
+
+    private static Config config(String... settings) {
+        Properties properties = new Properties();
+        properties.setProperty("LogLevel", "OFF");
+        for (int i = 0; i < settings.length; i += 2)
+            properties.setProperty(settings[i], settings[i + 1]);
+        Logger logger = Logger.getLogger("UtilImplTest");
+        logger.setUseParentHandlers(false);
+        return new Config(logger, properties);
+    }
+
+    /**
+     * The original implementation: a feature matches if it is the same on all the cards or different on all of them.
+     * Counts the matching features that are not ignored, so with the default settings it is the original rule.
+     */
+    private static class Reference {
+
+        private final Config config;
+        private final boolean[] ignored;
+        private final int minMatches;
+
+        Reference(Config config) {
+            this.config = config;
+            ignored = new boolean[config.featureCount];
+            for (int feature : config.setIgnoredFeatures) ignored[feature] = true;
+            int counted = 0;
+            for (boolean ignore : ignored)
+                if (!ignore) counted++;
+            minMatches = config.setMinFeatures > 0 ? Math.min(config.setMinFeatures, counted) : counted;
+        }
+
+        int[] cardToFeatures(int card) {
+            int[] features = new int[config.featureCount];
+            for (int i = config.featureCount - 1; i >= 0; --i) {
+                features[i] = card % config.featureSize;
+                card /= config.featureSize;
+            }
+            return features;
+        }
+
+        boolean testSet(int[] cards) {
+            int[][] features = new int[cards.length][];
+            for (int j = 0; j < cards.length; ++j)
+                features[j] = cardToFeatures(cards[j]);
+            int matches = 0;
+            for (int i = 0; i < config.featureCount; ++i) {
+                boolean sameSame = true, butDifferent = true;
+
+                // check if this features is sameSame in all cards
+                for (int j = 1; j < features.length; ++j)
+                    if (features[0][i] != features[j][i]) {
+                        sameSame = false;
+                        break;
+                    }
+
+                // check if this feature is butDifferent in all cards
+                for (int j = 1; j < features.length; ++j)
+                    for (int k = j; k < features.length; ++k)
+                        if (features[j - 1][i] == features[k][i]) {
+                            butDifferent = false;
+                            break;
+                        }
+
+                if (sameSame != butDifferent && !ignored[i]) matches++;
+            }
+            return matches >= minMatches;
+        }
+
+        List<int[]> findSets(List<Integer> deck, int count) {
+            LinkedList<int[]> sets = new LinkedList<>();
+            int n = deck.size();
+            int r = config.setSize;
+            int[] combination = new int[r];
+
+            for (int i = 0; i < r; ++i)
+                combination[i] = i;
+
+            while (combination[r - 1] < deck.size()) {
+                int[] cards = Arrays.stream(combination).map(deck::get).sorted().toArray();
+                if (testSet(cards)) {
+                    sets.add(cards);
+                    if (sets.size() >= count) return sets;
+                }
+
+                // generate next combination in lexicographic order
+                int t = r - 1;
+                while (t != 0 && combination[t] == n - r + t) --t;
+                combination[t]++;
+                for (int i = t + 1; i < r; i++) combination[i] = combination[i - 1] + 1;
+            }
+            return sets;
+        }
+    }
+
+    /**
+     * Tests every combination of setSize cards of the deck with the compiled rule, UtilImpl and the reference.
+     */
+    private static void assertSameSets(Config config) {
+        Reference reference = new Reference(config);
+        UtilImpl util = new UtilImpl(config);
+        CompiledSetRule rule = new CompiledSetRule(config, SetRule.of(config));
+        int r = config.setSize;
+        int[] cards = new int[r];
+        for (int i = 0; i < r; ++i)
+            cards[i] = i;
+        int sets = 0;
+        while (cards[r - 1] < config.deckSize) {
+            boolean expected = reference.testSet(cards);
+            assertEquals(expected, rule.test(cards), "compiled rule on " + Arrays.toString(cards));
+            assertEquals(expected, util.testSet(cards), "testSet on " + Arrays.toString(cards));
+            if (expected) sets++;
+
+            int t = r - 1;
+            while (t != 0 && cards[t] == config.deckSize - r + t) --t;
+            cards[t]++;
+            for (int i = t + 1; i < r; i++) cards[i] = cards[i - 1] + 1;
+        }
+        assertTrue(sets > 0, "the rule has sets");
+    }
+
+    /**
+     * Searches random decks with UtilImpl and the reference, for all the sets and for the first ones. With a set cache,
+     * all the sets in up to tableSize cards are found in the canonical order (as the reference finds them in the cards
+     * sorted by id), and the first ones are taken from them only if the cards were cached.
+     */
+    private static void assertSameSearch(Config config) {
+        Reference reference = new Reference(config);
+        UtilImpl util = new UtilImpl(config);
+        Random random = new Random(2024);
+        List<Integer> all = new ArrayList<>();
+        for (int card = 0; card < config.deckSize; ++card)
+            all.add(card);
+        for (int round = 0; round < 300; ++round) {
+            Collections.shuffle(all, random);
+            List<Integer> deck = new ArrayList<>(all.subList(0, 3 + random.nextInt(16)));
+            if (config.setCacheSize == 0 || deck.size() > config.tableSize) {
+                for (int count : new int[]{1, 2, Integer.MAX_VALUE})
+                    assertSameLists(reference.findSets(deck, count), util.findSets(deck, count), deck + " (count " + count + ")");
+            } else {
+                List<Integer> sorted = new ArrayList<>(deck);
+                sorted.sort(null);
+                List<int[]> sets = reference.findSets(sorted, Integer.MAX_VALUE);
+                for (int count : new int[]{1, 2}) {
+                    List<int[]> found = util.findSets(deck, count);
+                    assertEquals(Math.min(count, sets.size()), found.size(), "sets found in " + deck + " (count " + count + ")");
+                    for (int[] set : found)
+                        assertTrue(sets.stream().anyMatch(expected -> Arrays.equals(expected, set)), Arrays.toString(set) + " is a set");
+                }
+                assertSameLists(sets, util.findSets(deck, Integer.MAX_VALUE), deck.toString());
+                assertSameLists(sets, util.findSets(deck, Integer.MAX_VALUE), deck + " (cached)");
+                assertSameLists(sets.subList(0, Math.min(1, sets.size())), util.findSets(deck, 1), deck + " (cached, count 1)");
+            }
+        }
+    }
+
+    private static void assertSameLists(List<int[]> expected, List<int[]> actual, String deck) {
+        assertEquals(expected.size(), actual.size(), "sets found in " + deck);
+        for (int i = 0; i < expected.size(); ++i)
+            assertArrayEquals(expected.get(i), actual.get(i), "set " + i + " found in " + deck);
+    }
+
+    @Test
+    void defaultRule() {
+        assertSameSets(config());
+        assertSameSearch(config());
+    }
+
+    @Test
+    void defaultRuleWithCache() {
+        assertSameSearch(config("SetCacheSize", "1024"));
+    }
+
+    @Test
+    void minFeatures() {
+        assertSameSets(config("SetMinFeatures", "3"));
+        assertSameSearch(config("SetMinFeatures", "3"));
+        assertSameSets(config("SetMinFeatures", "1"));
+    }
+
+    @Test
+    void ignoredFeatures() {
+        assertSameSets(config("SetIgnoredFeatures", "0, 2"));
+        assertSameSearch(config("SetIgnoredFeatures", "0, 2"));
+        assertSameSets(config("SetIgnoredFeatures", "1", "SetMinFeatures", "2"));
+    }
+
+    @Test
+    void largerDeck() {
+        assertSameSets(config("FeatureSize", "4", "FeatureCount", "3"));
+        assertSameSearch(config("FeatureSize", "4", "FeatureCount", "3", "SetMinFeatures", "2"));
+    }
+
+    @Test
+    void setSizeOtherThanFeatureSize() {
+        assertSameSets(config("SetSize", "4", "FeatureSize", "4", "FeatureCount", "3"));
+        assertSameSearch(config("SetSize", "4", "FeatureSize", "4", "FeatureCount", "3"));
+        assertSameSearch(config("SetSize", "4", "FeatureSize", "4", "FeatureCount", "3", "SetCacheSize", "1024"));
+        assertSameSets(config("SetSize", "3", "FeatureSize", "4", "FeatureCount", "3"));
+        assertSameSearch(config("SetSize", "3", "FeatureSize", "4", "FeatureCount", "3"));
+    }
+
+    @Test
+    void invalidSetSize() {
+        Config config = config("SetSize", "0");
+        assertEquals(config.featureSize, config.setSize);
+        assertSameSets(config);
+    }
+}
@@ -0,0 +1,133 @@
+package bguspl.set.ex;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LeaderboardTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("leaderboard");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    private void record(int alice, int bob) throws IOException {
+        Leaderboard.record(directory.toString(), System.currentTimeMillis(), 60_000, new String[]{"alice", "bob"},
+                new int[]{alice, bob}, new boolean[]{alice >= bob, bob >= alice});
+    }
+
+    @Test
+    void recordedGamesAreKeptAcrossOpens() throws IOException {
+        record(3, 1);
+        record(2, 5);
+        try (Leaderboard leaderboard = new Leaderboard(directory.toString())) {
+            assertEquals(2, leaderboard.players());
+            Leaderboard.Standing alice = leaderboard.standing("alice");
+            assertEquals(2, alice.games);
+            assertEquals(1, alice.wins);
+            assertEquals(5, alice.totalScore);
+            List<Leaderboard.Result> history = leaderboard.history("bob", 10);
+            assertEquals(2, history.size());
+            assertEquals(5, history.get(0).score);
+            assertEquals(1, history.get(0).rank);
+            assertEquals(1, history.get(1).score);
+            assertEquals(2, history.get(1).rank);
+        }
+    }
+
+    @Test
+    void indexIsRebuiltWithoutARecordTruncatedMidway() throws IOException {
+        record(3, 1);
+        record(2, 5);
+        long complete = Files.size(directory.resolve("results.log"));
+        record(4, 0);
+        // a crash while the last record was appended: its tail never reached the disk
+        try (FileChannel log = FileChannel.open(directory.resolve("results.log"), StandardOpenOption.WRITE)) {
+            log.truncate(log.size() - 5);
+        }
+
+        try (Leaderboard leaderboard = new Leaderboard(directory.toString())) {
+            Leaderboard.Standing alice = leaderboard.standing("alice");
+            assertEquals(2, alice.games);
+            assertEquals(5, alice.totalScore);
+            assertEquals(2, leaderboard.history("alice", 10).size());
+            assertEquals(6, leaderboard.standing("bob").totalScore);
+        }
+        assertEquals(complete, Files.size(directory.resolve("results.log")), "the torn record is truncated");
+
+        record(1, 1);
+        try (Leaderboard leaderboard = new Leaderboard(directory.toString())) {
+            assertEquals(3, leaderboard.standing("alice").games);
+            List<Leaderboard.Result> history = leaderboard.history("bob", 10);
+            assertEquals(3, history.size());
+            assertEquals(1, history.get(0).score);
+            assertEquals(5, history.get(1).score);
+            assertEquals(1, history.get(2).score);
+        }
+    }
+
+    @Test
+    void concurrentGamesShareALeaderboard() throws Exception {
+        Thread[] games = new Thread[8];
+        IOException[] failure = new IOException[1];
+        for (int i = 0; i < games.length; i++) {
+            games[i] = new Thread(() -> {
+                try {
+                    for (int game = 0; game < 10; game++) record(1, 0);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            games[i].start();
+        }
+        for (Thread game : games) game.join();
+        assertNull(failure[0]);
+        try (Leaderboard leaderboard = new Leaderboard(directory.toString())) {
+            assertEquals(80, leaderboard.standing("alice").wins);
+        }
+    }
+
+    @Test
+    void gamesOfManyPlayersAreRecorded() throws IOException {
+        int players = 300;
+        String[] names = new String[players];
+        int[] scores = new int[players];
+        boolean[] winners = new boolean[players];
+        for (int i = 0; i < players; i++) {
+            names[i] = "player " + i;
+            scores[i] = i;
+        }
+        winners[players - 1] = true;
+        Leaderboard.record(directory.toString(), System.currentTimeMillis(), 60_000, names, scores, winners);
+
+        Files.delete(directory.resolve("players.idx")); // rebuilt from the log
+        try (Leaderboard leaderboard = new Leaderboard(directory.toString())) {
+            assertEquals(players, leaderboard.players());
+            Leaderboard.Result result = leaderboard.history("player 0", 1).get(0);
+            assertEquals(players, result.players);
+            assertEquals(players, result.rank);
+            assertEquals(1, leaderboard.standing("player 299").wins);
+        }
+    }
+}